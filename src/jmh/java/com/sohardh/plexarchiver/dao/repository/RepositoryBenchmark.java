@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import com.sohardh.plexarchiver.dao.model.MovieFileModel;
+import com.sohardh.plexarchiver.dao.model.MovieModel;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Writes a batch of movies and their files to an embedded PostgreSQL, through the batched paths
+ * the archive run uses and through plain <code>saveAll</code> for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+
+  @Param({"1000"})
+  private int movieCount;
+  private EmbeddedPostgres postgres;
+  private ConfigurableApplicationContext context;
+  private MovieRepository movieRepository;
+  private MovieFileRepository movieFileRepository;
+  private JdbcTemplate jdbcTemplate;
+  private int batch;
+
+  @Setup(Level.Trial)
+  public void startDatabase() throws Exception {
+    postgres = EmbeddedPostgres.start();
+    context = new SpringApplicationBuilder(RepositoryBenchmarkConfig.class)
+        .web(WebApplicationType.NONE)
+        .properties(
+            "spring.datasource.url=" + postgres.getJdbcUrl("postgres", "postgres"),
+            "spring.datasource.username=postgres")
+        .run();
+    movieRepository = context.getBean(MovieRepository.class);
+    movieFileRepository = context.getBean(MovieFileRepository.class);
+    jdbcTemplate = context.getBean(JdbcTemplate.class);
+  }
+
+  @Setup(Level.Iteration)
+  public void truncate() {
+    jdbcTemplate.execute("TRUNCATE pa.movie_file, pa.movies");
+  }
+
+  @TearDown(Level.Trial)
+  public void stopDatabase() throws Exception {
+    context.close();
+    postgres.close();
+  }
+
+  @Benchmark
+  public void upsertAll() {
+    movieRepository.upsertAll(nextMovies());
+  }
+
+  @Benchmark
+  public void saveAll() {
+    movieRepository.saveAll(nextMovies());
+  }
+
+  @Benchmark
+  public void upsertAllWithFiles() {
+    List<MovieModel> movies = nextMovies();
+    movieRepository.upsertAll(movies);
+    List<MovieFileModel> movieFiles = new ArrayList<>(movies.size());
+    for (MovieModel movie : movies) {
+      var movieFile = new MovieFileModel();
+      movieFile.setMovieModel(movie);
+      movieFile.setOriginalFile("/mnt/user/movies/" + movie.getTitle() + "/movie.mkv");
+      movieFile.setBackupFile("/mnt/archive/" + movie.getTitle() + "/movie.mkv");
+      movieFile.setSize(20_000_000_000L);
+      movieFiles.add(movieFile);
+    }
+    movieFileRepository.persistAll(movieFiles);
+  }
+
+  private List<MovieModel> nextMovies() {
+    int offset = batch++ * movieCount;
+    List<MovieModel> movies = new ArrayList<>(movieCount);
+    for (int i = offset; i < offset + movieCount; i++) {
+      var movie = new MovieModel();
+      movie.setGuid("plex://movie/" + Integer.toHexString(i));
+      movie.setTitle("Movie " + i);
+      movie.setViewCount(1);
+      movie.setAddedAt(1500000000L);
+      movie.setLastViewedAt(1550000000L);
+      movie.setOriginallyAvailableAt(LocalDate.of(2001, 1, 1));
+      movies.add(movie);
+    }
+    return movies;
+  }
+
+  @Configuration
+  @EnableAutoConfiguration
+  @EntityScan(basePackageClasses = MovieModel.class)
+  @EnableJpaRepositories(basePackageClasses = MovieRepository.class)
+  static class RepositoryBenchmarkConfig {
+
+  }
+}
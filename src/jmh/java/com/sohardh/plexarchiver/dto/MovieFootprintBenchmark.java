@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.dto;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Builds a library of movies in the string-typed layout {@link Movie} used to have and in the
+ * current compact layout. Run with {@code -prof gc} for the allocation per library. The footprint
+ * benchmarks build one library each and report its retained size as the
+ * <code>retainedBytes</code> secondary result. Every movie gets its own release date, like it
+ * does when parsed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class MovieFootprintBenchmark {
+
+  private static final String LIBRARY = "/mnt/user/movies/";
+  private static final long FIRST_RELEASE = LocalDate.of(1970, 1, 1).toEpochDay();
+
+  @Param({"100000"})
+  private int movieCount;
+
+  @Benchmark
+  public List<LegacyMovie> legacy() {
+    List<LegacyMovie> movies = new ArrayList<>(movieCount);
+    for (int i = 0; i < movieCount; i++) {
+      List<String> files = new ArrayList<>();
+      files.add(LIBRARY + "Movie " + i + "/Movie " + i + ".mkv");
+      movies.add(new LegacyMovie("plex://movie/" + Integer.toHexString(i), "Movie " + i,
+          Integer.toString(i % 5), Long.toString(1500000000L + i), released(i),
+          Long.toString(1550000000L + i), "/library/metadata/" + i + "/thumb/1", files));
+    }
+    return movies;
+  }
+
+  @Benchmark
+  public List<Movie> compact() {
+    List<Movie> movies = new ArrayList<>(movieCount);
+    for (int i = 0; i < movieCount; i++) {
+      MoviePart part = MoviePart.builder().id(i).size(4_000_000_000L).duration(6_000_000L)
+          .file(LIBRARY + "Movie " + i + "/Movie " + i + ".mkv").build();
+      movies.add(Movie.builder().guid("plex://movie/" + Integer.toHexString(i))
+          .title("Movie " + i).viewCount(i % 5).addedAt(1500000000L + i)
+          .originallyAvailableAt(LocalDate.parse(released(i))).lastViewedAt(1550000000L + i)
+          .thumb("/library/metadata/" + i + "/thumb/1").parts(List.of(part)).build());
+    }
+    return movies;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 0)
+  @Measurement(iterations = 1)
+  public void legacyFootprint(Footprint footprint) {
+    footprint.retainedBytes = GraphLayout.parseInstance(legacy()).totalSize();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 0)
+  @Measurement(iterations = 1)
+  public void compactFootprint(Footprint footprint) {
+    footprint.retainedBytes = GraphLayout.parseInstance(compact()).totalSize();
+  }
+
+  /**
+   * Release date as plex sends it, a new string for every movie.
+   */
+  private static String released(int movie) {
+    return LocalDate.ofEpochDay(FIRST_RELEASE + movie % 20_000).toString();
+  }
+
+  /**
+   * Retained size of the library built by a footprint benchmark, reported by JMH next to its
+   * time.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Footprint {
+
+    public long retainedBytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      retainedBytes = 0;
+    }
+  }
+
+  /**
+   * The layout before the typed fields: every Plex attribute kept as the raw string.
+   */
+  @AllArgsConstructor
+  @Getter
+  public static class LegacyMovie {
+
+    private String guid;
+    private String title;
+    private String viewCount;
+    private String addedAt;
+    private String originallyAvailableAt;
+    private String lastViewedAt;
+    private String thumb;
+    private List<String> files;
+  }
+}
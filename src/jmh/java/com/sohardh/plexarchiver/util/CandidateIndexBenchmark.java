@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.util;
+
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.MoviePart;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matches candidates against the archived guids, half of the candidates being archived already.
+ * {@link #linearScan()} is the per-movie scan {@link CandidateIndex} replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CandidateIndexBenchmark {
+
+  @Param({"10000", "50000", "100000"})
+  private int candidateCount;
+  private List<Movie> candidates;
+  private Set<String> archivedGuids;
+
+  @Setup
+  public void setUp() {
+    candidates = new ArrayList<>(candidateCount);
+    archivedGuids = new HashSet<>();
+    for (int i = 0; i < candidateCount; i++) {
+      String guid = "plex://movie/" + Integer.toHexString(i * 31 + 7);
+      candidates.add(Movie.builder().guid(guid).title("Movie " + i)
+          .parts(List.of(MoviePart.builder().file("/mnt/user/movies/Movie " + i + "/movie.mkv")
+              .build())).build());
+      if (i % 2 == 0) {
+        archivedGuids.add(guid);
+      }
+    }
+  }
+
+  @Benchmark
+  public CandidateIndex.Diff indexed() {
+    return new CandidateIndex(candidates).diff(archivedGuids);
+  }
+
+  @Benchmark
+  public List<Movie> linearScan() {
+    List<Movie> newMovies = new ArrayList<>();
+    for (Movie candidate : candidates) {
+      if (!archivedGuids.contains(candidate.getGuid())) {
+        newMovies.add(candidate);
+      }
+    }
+    List<Movie> matched = new ArrayList<>();
+    for (Movie newMovie : newMovies) {
+      Optional<Movie> movie = candidates.stream()
+          .filter(candidate -> candidate.getGuid().equals(newMovie.getGuid())).findFirst();
+      movie.ifPresent(matched::add);
+    }
+    return matched;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+/**
+ * Parses a synthetic <code>/library/sections/{id}/all</code> response with every parser mode.
+ * Run with <code>-prof gc</code> to compare the allocation rate of the DOM and streaming parsers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PlexDataParserUtilBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(PlexDataParserUtilBenchmark.class);
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  @Param({"1000", "10000", "100000"})
+  private int videoCount;
+  private String response;
+  private byte[] responseBytes;
+
+  @Setup
+  public void setUp() {
+    StringBuilder xml = new StringBuilder(videoCount * 700)
+        .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<MediaContainer size=\"").append(videoCount).append("\">\n");
+    for (int i = 0; i < videoCount; i++) {
+      xml.append("<Video ratingKey=\"").append(i).append("\" guid=\"plex://movie/")
+          .append(Integer.toHexString(i)).append("\" title=\"Movie ").append(i)
+          .append("\" thumb=\"/library/metadata/").append(i).append("/thumb/1650000000\"")
+          .append(" viewCount=\"1\" addedAt=\"1500000000\" lastViewedAt=\"1550000000\"")
+          .append(" originallyAvailableAt=\"2001-01-01\">\n")
+          .append("<Media id=\"").append(i).append("\" duration=\"7200000\">\n")
+          .append("<Part id=\"").append(i).append("\" size=\"20000000000\"")
+          .append(" file=\"/mnt/user/movies/Movie ").append(i).append("/Movie ").append(i)
+          .append(".mkv\"/>\n</Media>\n<Genre tag=\"Drama\"/>\n</Video>\n");
+    }
+    response = xml.append("</MediaContainer>").toString();
+    responseBytes = response.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public void dom(Blackhole blackhole) throws Exception {
+    PlexDataParserUtil.parsePlexResponse(response, log).forEach(blackhole::consume);
+  }
+
+  @Benchmark
+  public void stax(Blackhole blackhole) throws Exception {
+    PlexDataParserUtil.parsePlexResponse(new ByteArrayInputStream(responseBytes), log,
+        blackhole::consume);
+  }
+
+  @Benchmark
+  public void reactive(Blackhole blackhole) {
+    DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+    Flux<DataBuffer> body = Flux.range(0, (responseBytes.length + CHUNK_SIZE - 1) / CHUNK_SIZE)
+        .map(chunk -> bufferFactory.wrap(Arrays.copyOfRange(responseBytes, chunk * CHUNK_SIZE,
+            Math.min(responseBytes.length, (chunk + 1) * CHUNK_SIZE))));
+    PlexDataParserUtil.parsePlexResponse(body, log).doOnNext(blackhole::consume).blockLast();
+  }
+}
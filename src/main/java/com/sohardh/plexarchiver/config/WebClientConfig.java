@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.config;
+
+import io.netty.channel.ChannelOption;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+@Configuration
+public class WebClientConfig {
+
+  @Value("${plex.hostname}")
+  private String plexHostName;
+  @Value("${plex.port}")
+  private String plexPort;
+  @Value("${plex.token}")
+  private String plexToken;
+  @Value("${plex.client.connect-timeout}")
+  private Duration connectTimeout;
+  @Value("${plex.client.read-timeout}")
+  private Duration readTimeout;
+  @Value("${plex.client.max-connections}")
+  private int maxConnections;
+
+  /**
+   * Single pooled client for every plex request. The read timeout applies between two network
+   * reads, so a large response that keeps streaming is not cut off.
+   */
+  @Bean
+  public WebClient plexWebClient(WebClient.Builder builder) {
+    ConnectionProvider connectionProvider = ConnectionProvider.builder("plex")
+        .maxConnections(maxConnections)
+        .build();
+    HttpClient httpClient = HttpClient.create(connectionProvider)
+        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+        .responseTimeout(readTimeout);
+    return builder
+        .baseUrl(plexHostName + ":" + plexPort)
+        .defaultHeader("X-Plex-Token", plexToken)
+        .clientConnector(new ReactorClientHttpConnector(httpClient))
+        .build();
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.controller;
+
+import com.sohardh.plexarchiver.dto.ArchivePlan;
+import com.sohardh.plexarchiver.service.MovieArchiveService;
+import lombok.AllArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+@RestController
+@AllArgsConstructor
+public class ArchiveController {
+
+  private final MovieArchiveService movieArchiveService;
+
+  /**
+   * Answers what the next archive run would do, without moving any data. The next run carries
+   * out this plan as long as plex and the archive did not change in between.
+   */
+  @GetMapping("/archive/plan")
+  public Mono<ArchivePlan> plan() {
+    return Mono.fromCallable(movieArchiveService::planArchive)
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.controller;
+
+import com.sohardh.plexarchiver.service.MovieRestoreService;
+import lombok.AllArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+@RestController
+@AllArgsConstructor
+public class RestoreController {
+
+  private final MovieRestoreService movieRestoreService;
+
+  /**
+   * Queues the restore of all files of an archived movie. The guid is a query parameter since
+   * plex guids contain slashes, e.g. <code>plex://movie/5d776...</code>. Answers 404 when the
+   * movie is not archived or all of its files are already being restored.
+   */
+  @PostMapping("/restore")
+  public Mono<ResponseEntity<Integer>> restore(@RequestParam String guid) {
+    return Mono.fromCallable(() -> movieRestoreService.requestRestore(guid))
+        .subscribeOn(Schedulers.boundedElastic())
+        .map(queued -> queued > 0 ? ResponseEntity.accepted().body(queued)
+            : ResponseEntity.notFound().build());
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.dao.model;
+
+/**
+ * Progress of archiving one movie file. Every state is written before the step that leaves it
+ * starts, so after a crash the state tells which steps still have to run.
+ */
+public enum ArchiveState {
+  /**
+   * Recorded, nothing copied yet.
+   */
+  PENDING,
+  /**
+   * The copy to the archive has started.
+   */
+  COPYING,
+  /**
+   * The backup is complete and verified. The original is about to be replaced, or has just been
+   * replaced if the process died before recording it.
+   */
+  VERIFIED,
+  /**
+   * The original has been replaced with a sample.
+   */
+  SWAPPED,
+  /**
+   * Every file of the movie has been swapped.
+   */
+  DONE,
+  /**
+   * The backup has been copied back over the sample. The rows of the movie are kept for
+   * <code>restore.retention</code>, so archive runs do not take the movie again right away.
+   */
+  RESTORED
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Movie waiting in the cluster work queue. The row exists from the moment the planner persisted
+ * the movie until a node finished archiving it, and is held by <code>owner</code> while
+ * <code>CLAIMED</code>. A claim whose heartbeat is older than
+ * <code>archive.cluster.claim-ttl</code> is queued again.
+ */
+@Getter
+@Setter
+@Entity
+@Table(schema = "pa", name = "archive_work",
+    indexes = @Index(name = "archive_work_status_idx", columnList = "status, queued_at"))
+public class ArchiveWorkModel {
+
+  @Id
+  @Column(name = "guid")
+  private String guid;
+  @Column(name = "guid_hash")
+  private int guidHash;
+  @Column(name = "source_dir", length = 4096)
+  private String sourceDir;
+  @Enumerated(EnumType.STRING)
+  @Column(name = "status")
+  private WorkStatus status;
+  @Column(name = "owner")
+  private String owner;
+  @Column(name = "attempts")
+  private int attempts;
+  @Column(name = "queued_at")
+  private Instant queuedAt;
+  @Column(name = "claimed_at")
+  private Instant claimedAt;
+  @Column(name = "heartbeat_at")
+  private Instant heartbeatAt;
+
+}
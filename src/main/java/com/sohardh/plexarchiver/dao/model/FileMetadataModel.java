@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * What is known about a movie file without reading it again. Size, part id and duration come from
+ * plex. Modification time, file key (the inode on unix) and checksum come from the last time the
+ * file was read, and are dropped once plex reports a different size.
+ */
+@Getter
+@Setter
+@Entity
+@Table(schema = "pa", name = "file_metadata")
+public class FileMetadataModel {
+
+  @Id
+  @Column(name = "path", length = 4096)
+  private String path;
+  @Column(name = "part_id")
+  private Long partId;
+  @Column(name = "size")
+  private Long size;
+  @Column(name = "duration")
+  private Long duration;
+  @Column(name = "modified_at")
+  private Long modifiedAt;
+  @Column(name = "file_key")
+  private String fileKey;
+  @Column(name = "checksum")
+  private String checksum;
+  @Column(name = "stat_at")
+  private Instant statAt;
+  @Column(name = "last_seen_at")
+  private Instant lastSeenAt;
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Lease that makes sure only one instance runs a job at a time. The lease is held by
+ * <code>owner</code> until <code>expires_at</code> and has to be renewed by its heartbeat before
+ * that, otherwise another instance may take it over.
+ */
+@Getter
+@Setter
+@Entity
+@Table(schema = "pa", name = "job_lease")
+public class JobLeaseModel {
+
+  @Id
+  @Column(name = "job_name")
+  private String jobName;
+  @Column(name = "owner")
+  private String owner;
+  @Column(name = "acquired_at")
+  private Instant acquiredAt;
+  @Column(name = "heartbeat_at")
+  private Instant heartbeatAt;
+  @Column(name = "expires_at")
+  private Instant expiresAt;
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * History entry of one job run. A run that stays {@link JobRunStatus#RUNNING} after its lease
+ * has been taken over is marked {@link JobRunStatus#ABANDONED}.
+ */
+@Getter
+@Setter
+@Entity
+@Table(schema = "pa", name = "job_run")
+public class JobRunModel {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "job_run_seq")
+  @SequenceGenerator(name = "job_run_seq", schema = "pa", sequenceName = "job_run_seq",
+      allocationSize = 1)
+  @Column(name = "job_run_id")
+  private Long jobRunId;
+  @Column(name = "job_name")
+  private String jobName;
+  @Column(name = "owner")
+  private String owner;
+  @Enumerated(EnumType.STRING)
+  @Column(name = "status")
+  private JobRunStatus status;
+  @Column(name = "started_at")
+  private Instant startedAt;
+  @Column(name = "heartbeat_at")
+  private Instant heartbeatAt;
+  @Column(name = "ended_at")
+  private Instant endedAt;
+  @Column(name = "candidates")
+  private Integer candidates;
+  @Column(name = "archived_movies")
+  private Integer archivedMovies;
+  @Column(name = "archived_files")
+  private Integer archivedFiles;
+  @Column(name = "archived_bytes")
+  private Long archivedBytes;
+  @Column(name = "failed_movies")
+  private Integer failedMovies;
+  @Column(name = "message", length = 2048)
+  private String message;
+
+}
@@ -19,11 +19,17 @@
 
 package com.sohardh.plexarchiver.dao.model;
 
-import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.Getter;
 import lombok.Setter;
@@ -36,14 +42,24 @@ public class MovieFileModel {
 
 
   @Id()
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "movie_file_seq")
+  @SequenceGenerator(name = "movie_file_seq", schema = "pa", sequenceName = "movie_file_seq",
+      allocationSize = 50)
   @Column(name = "movie_file_model_id")
   private Integer movieFileModelId;
-  @Column(name = "guid")
-  @ManyToOne(cascade = CascadeType.REMOVE, targetEntity = MovieModel.class)
+  @JoinColumn(name = "guid")
+  @ManyToOne(fetch = FetchType.LAZY, targetEntity = MovieModel.class)
   private MovieModel movieModel;
   @Column(name = "original_file")
   private String originalFile;
   @Column(name = "backup_file")
   private String backupFile;
+  @Column(name = "size")
+  private Long size;
+  @Column(name = "checksum")
+  private String checksum;
+  @Enumerated(EnumType.STRING)
+  @Column(name = "state")
+  private ArchiveState state;
 
 }
@@ -25,6 +25,8 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -45,15 +47,20 @@ public class MovieModel {
   @Column(name = "title")
   private String title;
   @Column(name = "view_count")
-  private String viewCount;
+  private int viewCount;
   @Column(name = "added_at")
-  private String addedAt;
+  private long addedAt;
   @Column(name = "originally_available_at")
-  private String originallyAvailableAt;
+  private LocalDate originallyAvailableAt;
   @Column(name = "last_viewed_at")
-  private String lastViewedAt;
+  private long lastViewedAt;
   @Column(name = "thumb")
   private String thumb;
+  /**
+   * When the last file of the movie was restored, null while it is archived.
+   */
+  @Column(name = "restored_at")
+  private Instant restoredAt;
 
   @OneToMany(cascade = CascadeType.REMOVE, targetEntity = MovieFileModel.class, mappedBy = "movieModel")
   private List<MovieFileModel> movieFiles;
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import java.time.Instant;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Request to copy the backup of one archived movie file back over its sample. There is at most
+ * one request per movie file.
+ */
+@Getter
+@Setter
+@Entity
+@Table(schema = "pa", name = "restore_request",
+    uniqueConstraints = @UniqueConstraint(columnNames = "movie_file_model_id"))
+public class RestoreRequestModel {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "restore_request_seq")
+  @SequenceGenerator(name = "restore_request_seq", schema = "pa",
+      sequenceName = "restore_request_seq", allocationSize = 1)
+  @Column(name = "restore_request_id")
+  private Long restoreRequestId;
+  @Column(name = "guid")
+  private String guid;
+  @Column(name = "movie_file_model_id")
+  private Integer movieFileModelId;
+  @Column(name = "size")
+  private Long size;
+  @Enumerated(EnumType.STRING)
+  @Column(name = "reason")
+  private RestoreReason reason;
+  @Enumerated(EnumType.STRING)
+  @Column(name = "status")
+  private RestoreStatus status;
+  @Column(name = "requested_at")
+  private Instant requestedAt;
+  @Column(name = "started_at")
+  private Instant startedAt;
+  @Column(name = "finished_at")
+  private Instant finishedAt;
+  @Column(name = "message", length = 2048)
+  private String message;
+
+}
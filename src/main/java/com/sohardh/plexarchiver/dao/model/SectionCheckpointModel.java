@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * High-water marks of the last successful candidate discovery of a plex library section. All
+ * timestamps are epoch seconds, like the ones plex reports.
+ */
+@Entity
+@Table(name = "section_checkpoint", schema = "pa")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SectionCheckpointModel {
+
+  @Id
+  @Column(name = "section_id")
+  private String sectionId;
+  @Column(name = "last_viewed_cutoff")
+  private Long lastViewedCutoff;
+  @Column(name = "updated_at_mark")
+  private Long updatedAtMark;
+  @Column(name = "last_full_sync_at")
+  private Long lastFullSyncAt;
+  @Column(name = "section_updated_at")
+  private Long sectionUpdatedAt;
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Write-ahead journal entry of one chunk of a file being archived. A chunk is only marked
+ * {@link ChunkState#DONE} once its bytes have been forced to the destination disk.
+ */
+@Getter
+@Setter
+@Entity
+@Table(schema = "pa", name = "transfer_chunk")
+public class TransferChunkModel {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transfer_chunk_seq")
+  @SequenceGenerator(name = "transfer_chunk_seq", schema = "pa",
+      sequenceName = "transfer_chunk_seq", allocationSize = 50)
+  @Column(name = "transfer_chunk_id")
+  private Long transferChunkId;
+  @Column(name = "source_file")
+  private String sourceFile;
+  @Column(name = "destination_file")
+  private String destinationFile;
+  @Column(name = "source_size")
+  private Long sourceSize;
+  @Column(name = "source_modified_at")
+  private Long sourceModifiedAt;
+  @Column(name = "chunk_index")
+  private Integer chunkIndex;
+  @Column(name = "chunk_offset")
+  private Long chunkOffset;
+  @Column(name = "chunk_length")
+  private Long chunkLength;
+  @Column(name = "checksum")
+  private String checksum;
+  @Enumerated(EnumType.STRING)
+  @Column(name = "state")
+  private ChunkState state;
+
+}
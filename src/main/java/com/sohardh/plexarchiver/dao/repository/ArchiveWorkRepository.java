@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import com.sohardh.plexarchiver.dao.model.ArchiveWorkModel;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Work queue shared by the nodes of a cluster. Like the job lease, every operation is a single
+ * statement against the database clock.
+ */
+public interface ArchiveWorkRepository extends CrudRepository<ArchiveWorkModel, String>,
+    ArchiveWorkRepositoryCustom {
+
+  /**
+   * @return the number of claims of the owner that were extended
+   */
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      UPDATE pa.archive_work SET heartbeat_at = now()
+      WHERE owner = :owner AND status = 'CLAIMED'
+      """)
+  int heartbeat(@Param("owner") String owner);
+
+  /**
+   * @return 1 when the owner still holds the claim, 0 otherwise
+   */
+  @Query(nativeQuery = true, value = """
+      SELECT count(*) FROM pa.archive_work
+      WHERE guid = :guid AND owner = :owner AND status = 'CLAIMED'
+      """)
+  int isClaimed(@Param("guid") String guid, @Param("owner") String owner);
+
+  /**
+   * Queues the claims of nodes that stopped sending heartbeats again.
+   *
+   * @return the number of claims queued again
+   */
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      UPDATE pa.archive_work SET status = 'QUEUED', owner = NULL
+      WHERE status = 'CLAIMED' AND heartbeat_at < now() - make_interval(secs => :ttlSeconds)
+      """)
+  int requeueStale(@Param("ttlSeconds") long ttlSeconds);
+
+  /**
+   * Gives a claim back after a failed attempt. It is queued again at the end of the queue, or
+   * marked as failed once it used up its attempts.
+   *
+   * @return 1 when the owner still held the claim, 0 otherwise
+   */
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      UPDATE pa.archive_work
+      SET status = CASE WHEN attempts >= :maxAttempts THEN 'FAILED' ELSE 'QUEUED' END,
+          owner = NULL, queued_at = now()
+      WHERE guid = :guid AND owner = :owner AND status = 'CLAIMED'
+      """)
+  int release(@Param("guid") String guid, @Param("owner") String owner,
+      @Param("maxAttempts") int maxAttempts);
+
+  /**
+   * @return 1 when the owner still held the claim, 0 otherwise
+   */
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      DELETE FROM pa.archive_work
+      WHERE guid = :guid AND owner = :owner AND status = 'CLAIMED'
+      """)
+  int complete(@Param("guid") String guid, @Param("owner") String owner);
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import com.sohardh.plexarchiver.dao.model.ArchiveWorkModel;
+import java.util.Collection;
+import java.util.List;
+
+public interface ArchiveWorkRepositoryCustom {
+
+  /**
+   * Queues the movies in JDBC batches. Movies that are in the queue already keep their row.
+   */
+  void enqueueAll(Collection<ArchiveWorkModel> work);
+
+  /**
+   * Claims up to <code>limit</code> queued movies, oldest first. Rows locked by a concurrent
+   * claim are skipped instead of waited for, so nodes never claim the same movie.
+   *
+   * @return the guids of the claimed movies
+   */
+  List<String> claim(String owner, int limit);
+
+  /**
+   * Like {@link #claim(String, int)}, but only claims movies whose guid hash modulo
+   * <code>nodeCount</code> is <code>nodeIndex</code>.
+   */
+  List<String> claimByGuidHash(String owner, int limit, int nodeCount, int nodeIndex);
+
+  /**
+   * Like {@link #claim(String, int)}, but only claims movies whose source directory starts with
+   * one of the prefixes.
+   */
+  List<String> claimByVolume(String owner, int limit, Collection<String> prefixes);
+}
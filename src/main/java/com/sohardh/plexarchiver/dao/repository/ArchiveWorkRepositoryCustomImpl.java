@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import com.sohardh.plexarchiver.dao.model.ArchiveWorkModel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+public class ArchiveWorkRepositoryCustomImpl implements ArchiveWorkRepositoryCustom {
+
+  private static final String ENQUEUE_SQL = """
+      INSERT INTO pa.archive_work (guid, guid_hash, source_dir, status, attempts, queued_at)
+      VALUES (?, ?, ?, 'QUEUED', 0, now())
+      ON CONFLICT (guid) DO NOTHING
+      """;
+  private static final String CLAIM_SQL = """
+      UPDATE pa.archive_work
+      SET status = 'CLAIMED', owner = ?, attempts = attempts + 1, claimed_at = now(),
+          heartbeat_at = now()
+      WHERE guid IN (
+          SELECT guid FROM pa.archive_work
+          WHERE status = 'QUEUED' AND %s
+          ORDER BY queued_at
+          LIMIT ?
+          FOR UPDATE SKIP LOCKED)
+      RETURNING guid
+      """;
+  private final JdbcTemplate jdbcTemplate;
+  @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
+  private int batchSize;
+
+  public ArchiveWorkRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  @Override
+  @Transactional
+  public void enqueueAll(Collection<ArchiveWorkModel> work) {
+    jdbcTemplate.batchUpdate(ENQUEUE_SQL, work, batchSize, (ps, movie) -> {
+      ps.setString(1, movie.getGuid());
+      ps.setInt(2, movie.getGuidHash());
+      ps.setString(3, movie.getSourceDir());
+    });
+  }
+
+  @Override
+  @Transactional
+  public List<String> claim(String owner, int limit) {
+    return claim("TRUE", owner, limit, List.of());
+  }
+
+  @Override
+  @Transactional
+  public List<String> claimByGuidHash(String owner, int limit, int nodeCount, int nodeIndex) {
+    return claim("mod(guid_hash, ?) = ?", owner, limit, List.of(nodeCount, nodeIndex));
+  }
+
+  @Override
+  @Transactional
+  public List<String> claimByVolume(String owner, int limit, Collection<String> prefixes) {
+    if (prefixes.isEmpty()) {
+      return List.of();
+    }
+    String filter = String.join(" OR ",
+        Collections.nCopies(prefixes.size(), "starts_with(source_dir, ?)"));
+    return claim("(" + filter + ")", owner, limit, List.copyOf(prefixes));
+  }
+
+  private List<String> claim(String filter, String owner, int limit, List<?> filterArgs) {
+    var args = new ArrayList<Object>();
+    args.add(owner);
+    args.addAll(filterArgs);
+    args.add(limit);
+    return jdbcTemplate.queryForList(String.format(CLAIM_SQL, filter), String.class,
+        args.toArray());
+  }
+}
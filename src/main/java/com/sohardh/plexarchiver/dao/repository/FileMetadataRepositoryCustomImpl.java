@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import com.sohardh.plexarchiver.dto.MoviePart;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Collection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+public class FileMetadataRepositoryCustomImpl implements FileMetadataRepositoryCustom {
+
+  private static final String UPSERT_SQL = """
+      INSERT INTO pa.file_metadata (path, part_id, size, duration, last_seen_at)
+      VALUES (?, ?, ?, ?, ?)
+      ON CONFLICT (path) DO UPDATE SET
+          part_id = excluded.part_id,
+          duration = excluded.duration,
+          last_seen_at = excluded.last_seen_at,
+          size = coalesce(excluded.size, pa.file_metadata.size),
+          modified_at = CASE WHEN excluded.size <> pa.file_metadata.size THEN NULL
+              ELSE pa.file_metadata.modified_at END,
+          file_key = CASE WHEN excluded.size <> pa.file_metadata.size THEN NULL
+              ELSE pa.file_metadata.file_key END,
+          checksum = CASE WHEN excluded.size <> pa.file_metadata.size THEN NULL
+              ELSE pa.file_metadata.checksum END
+      """;
+  private final JdbcTemplate jdbcTemplate;
+  @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
+  private int batchSize;
+
+  public FileMetadataRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  @Override
+  @Transactional
+  public void upsertParts(Collection<MoviePart> parts, Instant seenAt) {
+    Timestamp seen = Timestamp.from(seenAt);
+    jdbcTemplate.batchUpdate(UPSERT_SQL, parts, batchSize, (ps, part) -> {
+      ps.setString(1, part.getFile());
+      ps.setObject(2, unknownAsNull(part.getId()), Types.BIGINT);
+      ps.setObject(3, unknownAsNull(part.getSize()), Types.BIGINT);
+      ps.setObject(4, unknownAsNull(part.getDuration()), Types.BIGINT);
+      ps.setTimestamp(5, seen);
+    });
+  }
+
+  private static Long unknownAsNull(long value) {
+    return value == 0 ? null : value;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import com.sohardh.plexarchiver.dao.model.JobLeaseModel;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Lease operations run as single statements against the database clock, so the clocks of the
+ * instances never have to agree.
+ */
+public interface JobLeaseRepository extends CrudRepository<JobLeaseModel, String> {
+
+  /**
+   * Takes the lease when nobody holds it, it expired, or it is already held by the owner.
+   *
+   * @return 1 when the lease was acquired, 0 otherwise
+   */
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      INSERT INTO pa.job_lease (job_name, owner, acquired_at, heartbeat_at, expires_at)
+      VALUES (:jobName, :owner, now(), now(), now() + make_interval(secs => :ttlSeconds))
+      ON CONFLICT (job_name) DO UPDATE SET
+          owner = excluded.owner,
+          acquired_at = excluded.acquired_at,
+          heartbeat_at = excluded.heartbeat_at,
+          expires_at = excluded.expires_at
+      WHERE pa.job_lease.expires_at < now() OR pa.job_lease.owner = excluded.owner
+      """)
+  int tryAcquire(@Param("jobName") String jobName, @Param("owner") String owner,
+      @Param("ttlSeconds") long ttlSeconds);
+
+  /**
+   * @return 1 when the lease was extended, 0 when it has been lost to another owner
+   */
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      UPDATE pa.job_lease
+      SET heartbeat_at = now(), expires_at = now() + make_interval(secs => :ttlSeconds)
+      WHERE job_name = :jobName AND owner = :owner
+      """)
+  int renew(@Param("jobName") String jobName, @Param("owner") String owner,
+      @Param("ttlSeconds") long ttlSeconds);
+
+  /**
+   * @return 1 when the owner holds the lease and it has not expired, 0 otherwise
+   */
+  @Query(nativeQuery = true, value = """
+      SELECT count(*) FROM pa.job_lease
+      WHERE job_name = :jobName AND owner = :owner AND expires_at > now()
+      """)
+  int isHeld(@Param("jobName") String jobName, @Param("owner") String owner);
+
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true,
+      value = "DELETE FROM pa.job_lease WHERE job_name = :jobName AND owner = :owner")
+  int release(@Param("jobName") String jobName, @Param("owner") String owner);
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import com.sohardh.plexarchiver.dao.model.JobRunModel;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface JobRunRepository extends CrudRepository<JobRunModel, Long> {
+
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true,
+      value = "UPDATE pa.job_run SET heartbeat_at = now() WHERE job_run_id = :jobRunId")
+  void heartbeat(@Param("jobRunId") Long jobRunId);
+
+  /**
+   * Marks the runs of a job that are still running as abandoned. Only called by the lease holder
+   * before it starts its own run, so any such run belongs to an instance that lost its lease.
+   *
+   * @return the number of abandoned runs
+   */
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      UPDATE pa.job_run
+      SET status = 'ABANDONED', ended_at = now(),
+          message = 'Lease expired after heartbeat at ' || CAST(heartbeat_at AS text)
+      WHERE job_name = :jobName AND status = 'RUNNING'
+      """)
+  int abandonRunning(@Param("jobName") String jobName);
+
+  /**
+   * Bytes per second the last successful runs that archived anything achieved, from their start
+   * to their end.
+   *
+   * @return null when there is no such run
+   */
+  @Query(nativeQuery = true, value = """
+      SELECT CAST(sum(archived_bytes)
+          / nullif(sum(extract(epoch FROM ended_at - started_at)), 0) AS double precision)
+      FROM (SELECT archived_bytes, started_at, ended_at FROM pa.job_run
+            WHERE status = 'SUCCEEDED' AND archived_bytes > 0
+            ORDER BY started_at DESC
+            LIMIT :runs) recent
+      """)
+  Double recentThroughput(@Param("runs") int runs);
+}
@@ -19,9 +19,67 @@
 
 package com.sohardh.plexarchiver.dao.repository;
 
+import com.sohardh.plexarchiver.dao.model.ArchiveState;
 import com.sohardh.plexarchiver.dao.model.MovieFileModel;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface MovieFileRepository extends CrudRepository<MovieFileModel, Integer> {
+/**
+ * The writes of an archive only change a row while this instance still owns its movie, through
+ * the unexpired lease of the archive job or through the movie's claim in the cluster queue. A
+ * write that changed nothing tells the caller that another instance may have taken the movie over.
+ */
+public interface MovieFileRepository extends CrudRepository<MovieFileModel, Integer>,
+    MovieFileRepositoryCustom {
+
+  String OWNED = "(exists (select l from JobLeaseModel l where l.jobName = :jobName "
+      + "and l.owner = :owner and l.expiresAt > current_timestamp) "
+      + "or exists (select w from ArchiveWorkModel w where w.guid = f.movieModel.guid "
+      + "and w.owner = :owner "
+      + "and w.status = com.sohardh.plexarchiver.dao.model.WorkStatus.CLAIMED))";
+
+  List<MovieFileModel> findByMovieModelGuidOrderByOriginalFile(String guid);
+
+  @Query("select f from MovieFileModel f join fetch f.movieModel where f.state in :states "
+      + "order by f.movieModel.guid, f.originalFile")
+  List<MovieFileModel> findAllByStateIn(@Param("states") Collection<ArchiveState> states);
+
+  @Transactional
+  @Modifying
+  @Query("update MovieFileModel f set f.state = :state where f.movieFileModelId = :id")
+  int updateState(@Param("id") Integer id, @Param("state") ArchiveState state);
+
+  @Transactional
+  @Modifying
+  @Query("update MovieFileModel f set f.state = :state where f.movieFileModelId = :id and "
+      + OWNED)
+  int updateOwnedState(@Param("id") Integer id, @Param("state") ArchiveState state,
+      @Param("jobName") String jobName, @Param("owner") String owner);
+
+  @Transactional
+  @Modifying
+  @Query("update MovieFileModel f set f.backupFile = :backupFile, f.size = :size, "
+      + "f.checksum = :checksum, f.state = :state where f.movieFileModelId = :id and " + OWNED)
+  int recordBackup(@Param("id") Integer id, @Param("backupFile") String backupFile,
+      @Param("size") Long size, @Param("checksum") String checksum,
+      @Param("state") ArchiveState state, @Param("jobName") String jobName,
+      @Param("owner") String owner);
+
+  @Transactional
+  @Modifying
+  @Query("update MovieFileModel f set f.state = :state where f.movieModel.guid in :guids and "
+      + OWNED)
+  int updateOwnedStateByMovieGuidIn(@Param("guids") Collection<String> guids,
+      @Param("state") ArchiveState state, @Param("jobName") String jobName,
+      @Param("owner") String owner);
 
+  @Transactional
+  @Modifying
+  @Query("delete from MovieFileModel f where f.movieModel.guid in :guids")
+  void deleteAllByMovieGuidIn(@Param("guids") Collection<String> guids);
 }
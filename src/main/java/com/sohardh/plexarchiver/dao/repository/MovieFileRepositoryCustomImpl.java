@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import com.sohardh.plexarchiver.dao.model.MovieFileModel;
+import com.sohardh.plexarchiver.dao.model.MovieModel;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.annotation.Transactional;
+
+public class MovieFileRepositoryCustomImpl implements MovieFileRepositoryCustom {
+
+  @PersistenceContext
+  private EntityManager entityManager;
+  @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
+  private int batchSize;
+
+  @Override
+  @Transactional
+  public void persistAll(Collection<MovieFileModel> movieFiles) {
+    var batch = new ArrayList<MovieFileModel>(batchSize);
+    for (MovieFileModel movieFile : movieFiles) {
+      batch.add(movieFile);
+      if (batch.size() == batchSize) {
+        persistBatch(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      persistBatch(batch);
+    }
+  }
+
+  /**
+   * Persists the files against references to their movies and gives every file its own movie
+   * back once the batch is written, so callers never hold a reference outside its session.
+   */
+  private void persistBatch(List<MovieFileModel> batch) {
+    List<MovieModel> movies = batch.stream().map(MovieFileModel::getMovieModel).toList();
+    for (MovieFileModel movieFile : batch) {
+      movieFile.setMovieModel(entityManager.getReference(MovieModel.class,
+          movieFile.getMovieModel().getGuid()));
+      entityManager.persist(movieFile);
+    }
+    entityManager.flush();
+    entityManager.clear();
+    for (int i = 0; i < batch.size(); i++) {
+      batch.get(i).setMovieModel(movies.get(i));
+    }
+  }
+}
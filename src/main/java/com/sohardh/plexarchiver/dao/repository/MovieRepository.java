@@ -20,9 +20,26 @@
 package com.sohardh.plexarchiver.dao.repository;
 
 import com.sohardh.plexarchiver.dao.model.MovieModel;
-import org.springframework.data.repository.CrudRepository;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Set;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface MovieRepository extends CrudRepository<MovieModel, String> {
+public interface MovieRepository extends JpaRepository<MovieModel, String>, MovieRepositoryCustom {
 
+  @Query("select m.guid from MovieModel m where m.guid in :guids")
+  Set<String> findExistingGuids(@Param("guids") Collection<String> guids);
+
+  @Query("select m.guid from MovieModel m where m.restoredAt < :cutoff")
+  Set<String> findRestoredBefore(@Param("cutoff") Instant cutoff);
+
+  @Transactional
+  @Modifying
+  @Query("update MovieModel m set m.restoredAt = :restoredAt where m.guid = :guid")
+  int markRestored(@Param("guid") String guid, @Param("restoredAt") Instant restoredAt);
 
 }
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import com.sohardh.plexarchiver.dao.model.MovieModel;
+import java.sql.Types;
+import java.util.Collection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Writes movies with PostgreSQL's <code>INSERT ... ON CONFLICT</code>, which avoids the SELECT
+ * JPA's merge issues for every entity with an assigned id.
+ */
+public class MovieRepositoryCustomImpl implements MovieRepositoryCustom {
+
+  private static final String UPSERT_SQL = """
+      INSERT INTO pa.movies (guid, title, view_count, added_at, originally_available_at,
+          last_viewed_at, thumb)
+      VALUES (?, ?, ?, ?, ?, ?, ?)
+      ON CONFLICT (guid) DO UPDATE SET
+          title = excluded.title,
+          view_count = excluded.view_count,
+          added_at = excluded.added_at,
+          originally_available_at = excluded.originally_available_at,
+          last_viewed_at = excluded.last_viewed_at,
+          thumb = excluded.thumb
+      """;
+  private final JdbcTemplate jdbcTemplate;
+  @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
+  private int batchSize;
+
+  public MovieRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  @Override
+  @Transactional
+  public void upsertAll(Collection<MovieModel> movies) {
+    jdbcTemplate.batchUpdate(UPSERT_SQL, movies, batchSize, (ps, movie) -> {
+      ps.setString(1, movie.getGuid());
+      ps.setString(2, movie.getTitle());
+      ps.setInt(3, movie.getViewCount());
+      ps.setLong(4, movie.getAddedAt());
+      ps.setObject(5, movie.getOriginallyAvailableAt(), Types.DATE);
+      ps.setLong(6, movie.getLastViewedAt());
+      ps.setString(7, movie.getThumb());
+    });
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import com.sohardh.plexarchiver.dao.model.RestoreRequestModel;
+import com.sohardh.plexarchiver.dao.model.RestoreStatus;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.ListCrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface RestoreRequestRepository extends ListCrudRepository<RestoreRequestModel, Long> {
+
+  List<RestoreRequestModel> findByStatus(RestoreStatus status);
+
+  boolean existsByGuidAndStatusNot(String guid, RestoreStatus status);
+
+  /**
+   * Queues a restore of the movie file, unless one is already queued, running or done. A failed
+   * request is queued again.
+   *
+   * @return 1 when the request was queued, 0 otherwise
+   */
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      INSERT INTO pa.restore_request (restore_request_id, guid, movie_file_model_id, size, reason,
+          status, requested_at)
+      VALUES (nextval('pa.restore_request_seq'), :guid, :movieFileModelId, :size, :reason,
+          'QUEUED', :requestedAt)
+      ON CONFLICT (movie_file_model_id) DO UPDATE SET
+          reason = excluded.reason,
+          status = excluded.status,
+          requested_at = excluded.requested_at,
+          started_at = NULL,
+          finished_at = NULL,
+          message = NULL
+      WHERE pa.restore_request.status = 'FAILED'
+      """)
+  int queue(@Param("guid") String guid, @Param("movieFileModelId") Integer movieFileModelId,
+      @Param("size") Long size, @Param("reason") String reason,
+      @Param("requestedAt") Instant requestedAt);
+
+  /**
+   * Takes a queued request, so that no other worker or instance restores the same file.
+   *
+   * @return 1 when the request was taken, 0 when it is no longer queued
+   */
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      UPDATE pa.restore_request SET status = 'RESTORING', started_at = :startedAt
+      WHERE restore_request_id = :restoreRequestId AND status = 'QUEUED'
+      """)
+  int claim(@Param("restoreRequestId") Long restoreRequestId,
+      @Param("startedAt") Instant startedAt);
+
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      UPDATE pa.restore_request SET status = :status, finished_at = :finishedAt,
+          message = :message
+      WHERE restore_request_id = :restoreRequestId
+      """)
+  void finish(@Param("restoreRequestId") Long restoreRequestId, @Param("status") String status,
+      @Param("finishedAt") Instant finishedAt, @Param("message") String message);
+
+  /**
+   * Queues requests again whose restore started before the given time and never finished,
+   * because the instance running it died.
+   */
+  @Transactional
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      UPDATE pa.restore_request SET status = 'QUEUED', started_at = NULL
+      WHERE status = 'RESTORING' AND started_at < :startedBefore
+      """)
+  int requeueStale(@Param("startedBefore") Instant startedBefore);
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dto;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * What an archive run would do, worked out without moving any data.
+ */
+@Getter
+@AllArgsConstructor
+public class ArchivePlan {
+
+  private Instant plannedAt;
+  /**
+   * Candidates plex reported, including the ones that are archived already.
+   */
+  private int candidates;
+  /**
+   * The movies the run would archive, in the order the policy chose them.
+   */
+  private List<PlannedMovie> movies;
+  private long totalBytes;
+  /**
+   * Bytes of originals per filesystem that would be replaced with samples, not counting the
+   * samples themselves.
+   */
+  private Map<String, Long> reclaimedBytesByVolume;
+  /**
+   * Bytes per second the archive is expected to take in, 0 when there is no history yet.
+   */
+  private double throughput;
+  /**
+   * Null when the throughput is unknown.
+   */
+  private Duration estimatedDuration;
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dto;
+
+import lombok.Getter;
+
+/**
+ * Counts of one archive run, stored in its job run history entry.
+ */
+@Getter
+public class ArchiveRunSummary {
+
+  private int candidates;
+  private int archivedMovies;
+  private int archivedFiles;
+  private long archivedBytes;
+  private int failedMovies;
+  private boolean completed;
+
+  public void addCandidates(int count) {
+    candidates += count;
+  }
+
+  public void addArchivedMovies(int count) {
+    archivedMovies += count;
+  }
+
+  public void addArchivedFile(long size) {
+    archivedFiles++;
+    archivedBytes += size;
+  }
+
+  public void addFailedMovies(int count) {
+    failedMovies += count;
+  }
+
+  public void markCompleted() {
+    completed = true;
+  }
+}
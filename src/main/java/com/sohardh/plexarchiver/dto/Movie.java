@@ -19,6 +19,7 @@
 
 package com.sohardh.plexarchiver.dto;
 
+import java.time.LocalDate;
 import java.util.List;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
@@ -33,10 +34,15 @@ public class Movie {
 
   private String guid;
   private String title;
-  private String viewCount;
-  private String addedAt;
-  private String originallyAvailableAt; // release date
-  private String lastViewedAt;
+  private int viewCount;
+  private long addedAt; // epoch seconds, 0 if unknown
+  private LocalDate originallyAvailableAt; // release date
+  private long lastViewedAt; // epoch seconds, 0 if never viewed
   private String thumb;
-  private List<String> files;
+  @Builder.Default
+  private List<MoviePart> parts = List.of();
+
+  public List<String> getFiles() {
+    return parts.stream().map(MoviePart::getFile).toList();
+  }
 }
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A new archive candidate together with what the archive policy needs to know about its files.
+ */
+@Getter
+@AllArgsConstructor
+public class PolicyCandidate {
+
+  private Movie movie;
+  /**
+   * Total size of the movie's files in bytes.
+   */
+  private long size;
+  /**
+   * The filesystem the movie's files are on.
+   */
+  private String volume;
+  /**
+   * Used share of that filesystem, from 0 to 1.
+   */
+  private double volumeUsage;
+}
@@ -19,9 +19,16 @@
 
 package com.sohardh.plexarchiver.job;
 
+import com.sohardh.plexarchiver.dto.ArchiveRunSummary;
+import com.sohardh.plexarchiver.service.ArchiveMetrics;
+import com.sohardh.plexarchiver.service.JobRunService;
 import com.sohardh.plexarchiver.service.MovieArchiveService;
+import io.micrometer.core.instrument.Timer;
+import java.util.Optional;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StopWatch;
@@ -32,15 +39,43 @@ import org.springframework.util.StopWatch;
 public class ArchiveJob {
 
   private final MovieArchiveService movieArchiveService;
+  private final JobRunService jobRunService;
+  private final ArchiveMetrics archiveMetrics;
 
-  //  @Scheduled(cron = "${schedule.movie.archive.cron.exp}")
-  @Scheduled(fixedRate = 3000)
+  @Scheduled(cron = "${schedule.movie.archive.cron.exp}")
   public void scheduleMovieArchive() {
     log.info("Archiving old/unwatched movies.");
     StopWatch stopWatch = new StopWatch();
     stopWatch.start();
-    movieArchiveService.archiveMovies();
+    Timer.Sample sample = archiveMetrics.start();
+    String outcome = "failure";
+    try {
+      Optional<ArchiveRunSummary> summary = jobRunService.runExclusively(
+          MovieArchiveService.JOB_NAME, movieArchiveService::archiveMovies);
+      outcome = summary.map(s -> s.isCompleted() ? "success" : "failure").orElse("skipped");
+    } finally {
+      archiveMetrics.recordRun(sample, outcome);
+    }
     stopWatch.stop();
-    log.info("Archiving completed in {}s", stopWatch.getTotalTimeSeconds());
+    log.info("Archiving {} in {}s", outcome, stopWatch.getTotalTimeSeconds());
+  }
+
+  /**
+   * Finishes the movies a crashed instance left behind as soon as the application is up. It
+   * takes the same lease as the archive run, and every run sweeps again before archiving anything,
+   * in case the lease was held elsewhere.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void recoverUnfinishedMovies() {
+    try {
+      jobRunService.runExclusively(MovieArchiveService.JOB_NAME,
+              movieArchiveService::recoverUnfinished)
+          .filter(summary -> summary.getArchivedMovies() + summary.getFailedMovies() > 0)
+          .ifPresent(summary -> log.info("Recovered {} unfinished movie(s), {} failed.",
+              summary.getArchivedMovies(), summary.getFailedMovies()));
+    } catch (Exception e) {
+      log.error("Error while recovering unfinished movies.", e);
+      archiveMetrics.recordFailure("recovery", e);
+    }
   }
 }
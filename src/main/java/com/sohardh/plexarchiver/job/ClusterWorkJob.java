@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.job;
+
+import com.sohardh.plexarchiver.dto.ArchiveRunSummary;
+import com.sohardh.plexarchiver.service.ArchiveMetrics;
+import com.sohardh.plexarchiver.service.ClusterWorkService;
+import com.sohardh.plexarchiver.service.MovieArchiveService;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Archives the movies this node claims from the {@link ClusterWorkService} queue, until the
+ * queue holds nothing more for it.
+ */
+@Slf4j
+@Component
+@AllArgsConstructor
+@ConditionalOnProperty(name = "archive.cluster.enabled", havingValue = "true")
+public class ClusterWorkJob {
+
+  private final MovieArchiveService movieArchiveService;
+  private final ArchiveMetrics archiveMetrics;
+
+  @Scheduled(fixedDelayString = "${archive.cluster.poll-interval}")
+  public void archiveClaimedMovies() {
+    try {
+      ArchiveRunSummary summary;
+      do {
+        summary = movieArchiveService.archiveClaimedMovies();
+        if (summary.getArchivedMovies() + summary.getFailedMovies() > 0) {
+          log.info("Archived {} claimed movie(s), {} failed.", summary.getArchivedMovies(),
+              summary.getFailedMovies());
+        }
+      } while (summary.getArchivedMovies() + summary.getFailedMovies() > 0);
+    } catch (Exception e) {
+      log.error("Error while archiving claimed movies.", e);
+      archiveMetrics.recordFailure("cluster", e);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.job;
+
+import com.sohardh.plexarchiver.service.PlexFetchDataService;
+import com.sohardh.plexarchiver.service.TransferThrottle;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tells the {@link TransferThrottle} how many sessions plex is streaming, so archive transfers
+ * back off while someone is watching.
+ */
+@Slf4j
+@Component
+@AllArgsConstructor
+@ConditionalOnProperty(name = "archive.throttle.enabled", havingValue = "true")
+public class PlexSessionJob {
+
+  private final PlexFetchDataService plexFetchDataService;
+  private final TransferThrottle transferThrottle;
+
+  @Scheduled(fixedDelayString = "${archive.throttle.session-poll-interval}")
+  public void pollSessions() {
+    try {
+      transferThrottle.setActiveSessions(plexFetchDataService.activeSessions());
+    } catch (Exception e) {
+      log.warn("Could not read the active sessions from plex, keeping the last known count. "
+          + "Cause: {}", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.job;
+
+import com.sohardh.plexarchiver.service.ArchiveMetrics;
+import com.sohardh.plexarchiver.service.MovieRestoreService;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@AllArgsConstructor
+public class RestoreJob {
+
+  private final MovieRestoreService movieRestoreService;
+  private final ArchiveMetrics archiveMetrics;
+
+  @Scheduled(fixedDelayString = "${restore.scan.interval}")
+  public void scheduleRestoreScan() {
+    try {
+      int queued = movieRestoreService.queuePlayedSamples();
+      if (queued > 0) {
+        log.info("Queued {} file(s) with played samples for restore.", queued);
+      }
+      int released = movieRestoreService.releaseRestoredMovies();
+      if (released > 0) {
+        log.info("{} restored movie(s) may be archived again.", released);
+      }
+    } catch (Exception e) {
+      log.error("Error while looking for played samples.", e);
+      archiveMetrics.recordFailure("restore_scan", e);
+    }
+  }
+}
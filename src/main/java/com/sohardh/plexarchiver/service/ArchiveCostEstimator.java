@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.dao.repository.JobRunRepository;
+import com.sohardh.plexarchiver.util.ExecutionMode;
+import java.time.Duration;
+import java.util.OptionalDouble;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Estimates how long archiving a number of bytes takes.
+ * <p>
+ * Once this instance transferred a file, the average throughput of single transfers to the
+ * archive host is multiplied by the number of transfers that run at once against it. Before
+ * that, the throughput of the last <code>archive.plan.history-runs</code> successful runs is used,
+ * which includes their discovery and sample swaps.
+ */
+@Service
+public class ArchiveCostEstimator {
+
+  private static final String LOCAL_HOST = "localhost";
+  private final ArchiveMetrics archiveMetrics;
+  private final ArchiveTransport archiveTransport;
+  private final JobRunRepository jobRunRepository;
+  @Value("${archive.plan.history-runs}")
+  private int historyRuns;
+  @Value("${archive.execution.mode}")
+  private ExecutionMode executionMode;
+  @Value("${archive.transfer.max-concurrent}")
+  private int maxConcurrentTransfers;
+  @Value("${archive.transfer.max-per-host}")
+  private int maxTransfersPerHost;
+  @Value("${archive.limits.disk}")
+  private int diskPermits;
+  @Value("${archive.limits.network}")
+  private int networkPermits;
+
+  public ArchiveCostEstimator(ArchiveMetrics archiveMetrics, ArchiveTransport archiveTransport,
+      JobRunRepository jobRunRepository) {
+    this.archiveMetrics = archiveMetrics;
+    this.archiveTransport = archiveTransport;
+    this.jobRunRepository = jobRunRepository;
+  }
+
+  /**
+   * @return bytes per second, 0 when neither a transfer nor a run is known yet
+   */
+  public double throughput() {
+    OptionalDouble measured = archiveMetrics.transferThroughput(archiveTransport.host());
+    if (measured.isPresent()) {
+      return measured.getAsDouble() * parallelTransfers();
+    }
+    Double history = jobRunRepository.recentThroughput(historyRuns);
+    return history == null ? 0 : history;
+  }
+
+  /**
+   * @return the estimated duration, or null when the throughput is unknown
+   */
+  public Duration estimate(long bytes, double throughput) {
+    return throughput <= 0 ? null : Duration.ofSeconds((long) Math.ceil(bytes / throughput));
+  }
+
+  /**
+   * Workflows take a permit of the resource they transfer over, the batch path is limited by the
+   * host pool of the {@link TransferEngine}.
+   */
+  private int parallelTransfers() {
+    if (executionMode == ExecutionMode.VIRTUAL) {
+      return LOCAL_HOST.equals(archiveTransport.host()) ? diskPermits : networkPermits;
+    }
+    return Math.min(maxConcurrentTransfers, maxTransfersPerHost);
+  }
+}
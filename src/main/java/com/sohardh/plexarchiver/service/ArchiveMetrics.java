@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.util.CandidateIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.OptionalDouble;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+/**
+ * Meters of every archive stage, exposed through the actuator <code>/actuator/prometheus</code>
+ * endpoint.
+ */
+@Component
+public class ArchiveMetrics {
+
+  private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+  private final MeterRegistry meterRegistry;
+  private final Counter downloadedBytes;
+
+  public ArchiveMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    this.downloadedBytes = Counter.builder("archiver.plex.downloaded")
+        .baseUnit("bytes")
+        .description("Bytes received from plex")
+        .register(meterRegistry);
+  }
+
+  public Timer.Sample start() {
+    return Timer.start(meterRegistry);
+  }
+
+  public void recordRun(Timer.Sample sample, String outcome) {
+    sample.stop(Timer.builder("archiver.run")
+        .description("Duration of a whole archive run")
+        .tag("outcome", outcome)
+        .register(meterRegistry));
+  }
+
+  /**
+   * Times a plex request from subscription until its body has been consumed, and counts the
+   * bytes received.
+   */
+  public Flux<DataBuffer> recordFetch(Flux<DataBuffer> body, String section) {
+    return Flux.defer(() -> {
+      Timer.Sample sample = start();
+      return body.doOnNext(buffer -> downloadedBytes.increment(buffer.readableByteCount()))
+          .doOnTerminate(() -> sample.stop(fetchTimer(section)));
+    });
+  }
+
+  public void recordConditionalFetch(boolean notModified) {
+    Counter.builder("archiver.plex.conditional")
+        .description("Conditional plex requests, by whether plex had any change")
+        .tag("result", notModified ? "not_modified" : "modified")
+        .register(meterRegistry)
+        .increment();
+  }
+
+  public void recordParse(Timer.Sample sample, String mode, int items) {
+    sample.stop(Timer.builder("archiver.parse")
+        .description("Time spent parsing a plex response")
+        .tag("mode", mode)
+        .register(meterRegistry));
+    recordParsedItems(mode, items);
+  }
+
+  public void recordParsedItems(String mode, int items) {
+    Counter.builder("archiver.parse.items")
+        .description("Movies parsed from plex responses")
+        .tag("mode", mode)
+        .register(meterRegistry)
+        .increment(items);
+  }
+
+  public void recordDiff(CandidateIndex.Diff diff) {
+    recordDiffSize("new", diff.getNewMovies().size());
+    recordDiffSize("archived", diff.getAlreadyArchived().size());
+  }
+
+  public <T> T recordDbBatch(String operation, Supplier<T> batch) {
+    return Timer.builder("archiver.db.batch")
+        .description("Latency of batched database writes")
+        .tag("operation", operation)
+        .register(meterRegistry)
+        .record(batch);
+  }
+
+  public void recordDbBatch(String operation, Runnable batch) {
+    recordDbBatch(operation, () -> {
+      batch.run();
+      return null;
+    });
+  }
+
+  /**
+   * Records one completed file transfer, including its throughput in MB/s.
+   */
+  public void recordTransfer(String host, long bytes, Duration duration) {
+    Timer.builder("archiver.transfer")
+        .description("Duration of file transfers to the archive")
+        .tag("host", host)
+        .register(meterRegistry)
+        .record(duration);
+    Counter.builder("archiver.transfer.bytes")
+        .baseUnit("bytes")
+        .tag("host", host)
+        .register(meterRegistry)
+        .increment(bytes);
+    double seconds = Math.max(duration.toNanos(), 1) / 1e9;
+    DistributionSummary.builder("archiver.transfer.throughput")
+        .description("Throughput of single file transfers")
+        .baseUnit("megabytes.per.second")
+        .tag("host", host)
+        .register(meterRegistry)
+        .record(bytes / BYTES_PER_MEGABYTE / seconds);
+  }
+
+  /**
+   * Bytes per second a single transfer to the host achieved on average since the start, or empty
+   * before the first transfer.
+   */
+  public OptionalDouble transferThroughput(String host) {
+    Timer timer = meterRegistry.find("archiver.transfer").tag("host", host).timer();
+    Counter bytes = meterRegistry.find("archiver.transfer.bytes").tag("host", host).counter();
+    if (timer == null || bytes == null || timer.totalTime(TimeUnit.SECONDS) <= 0) {
+      return OptionalDouble.empty();
+    }
+    return OptionalDouble.of(bytes.count() / timer.totalTime(TimeUnit.SECONDS));
+  }
+
+  public void recordThrottleWait(String direction, long nanos) {
+    Timer.builder("archiver.throttle.wait")
+        .description("Time transfers waited for bandwidth")
+        .tag("direction", direction)
+        .register(meterRegistry)
+        .record(Duration.ofNanos(nanos));
+  }
+
+  /**
+   * Counts the bytes of a chunk offered to the deduplicating archive, by whether the store already
+   * held it.
+   */
+  public void recordChunk(boolean duplicate, long bytes) {
+    Counter.builder("archiver.dedup.bytes")
+        .baseUnit("bytes")
+        .description("Bytes of chunks offered to the deduplicating archive")
+        .tag("result", duplicate ? "duplicate" : "stored")
+        .register(meterRegistry)
+        .increment(bytes);
+  }
+
+  public void recordSampleSwap(Timer.Sample sample, boolean success) {
+    sample.stop(Timer.builder("archiver.sample.swap")
+        .description("Time to replace an original with a sample")
+        .tag("outcome", success ? "success" : "failure")
+        .register(meterRegistry));
+  }
+
+  public void recordRestore(Timer.Sample sample, String reason, boolean success) {
+    sample.stop(Timer.builder("archiver.restore")
+        .description("Time to copy a backup back over its sample")
+        .tag("reason", reason)
+        .tag("outcome", success ? "success" : "failure")
+        .register(meterRegistry));
+  }
+
+  /**
+   * Counts a failure of the stage, tagged with the simple class name of its root cause.
+   */
+  public void recordFailure(String stage, Throwable throwable) {
+    Throwable cause = throwable;
+    while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+        && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    Counter.builder("archiver.failures")
+        .description("Failures by archive stage and cause")
+        .tag("stage", stage)
+        .tag("cause", cause.getClass().getSimpleName())
+        .register(meterRegistry)
+        .increment();
+  }
+
+  private Timer fetchTimer(String section) {
+    return Timer.builder("archiver.plex.fetch")
+        .description("Latency of plex requests, including the time to consume the body")
+        .tag("section", section)
+        .register(meterRegistry);
+  }
+
+  private void recordDiffSize(String type, int size) {
+    DistributionSummary.builder("archiver.diff.size")
+        .description("Number of candidates per diff result")
+        .tag("type", type)
+        .register(meterRegistry)
+        .record(size);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.dao.model.SectionCheckpointModel;
+import com.sohardh.plexarchiver.dto.ArchivePlan;
+import com.sohardh.plexarchiver.dto.CandidateDiscovery;
+import com.sohardh.plexarchiver.dto.Movie;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the last {@link ArchivePlan}, so an archive run can carry it out instead of asking plex
+ * for all candidates again.
+ * <p>
+ * A plan is reused while it is younger than <code>archive.plan.max-age</code> and its inputs are
+ * unchanged: the <code>updatedAt</code> of every movie section and the number of archived
+ * movies. Plex does not touch a section's <code>updatedAt</code> when a movie is watched, so the
+ * max age also bounds how long a movie watched after planning may still be archived by the plan.
+ * Plans of sections without a known <code>updatedAt</code> are never reused.
+ */
+@Component
+public class ArchivePlanCache {
+
+  private final AtomicReference<Entry> latest = new AtomicReference<>();
+  @Value("${archive.plan.max-age}")
+  private Duration maxAge;
+
+  /**
+   * @return the fingerprint of the inputs, or null when they cannot tell whether plex changed
+   */
+  public static String fingerprint(CandidateDiscovery discovery, long archivedMovies) {
+    List<SectionCheckpointModel> checkpoints = discovery.getCheckpoints();
+    if (checkpoints.stream().map(SectionCheckpointModel::getSectionUpdatedAt)
+        .anyMatch(updatedAt -> updatedAt == null || updatedAt == 0)) {
+      return null;
+    }
+    return checkpoints.stream()
+        .map(checkpoint -> checkpoint.getSectionId() + "@" + checkpoint.getSectionUpdatedAt())
+        .sorted()
+        .collect(Collectors.joining(",")) + "/" + archivedMovies;
+  }
+
+  public Optional<Entry> get(String fingerprint) {
+    Entry entry = latest.get();
+    if (fingerprint == null || entry == null || !fingerprint.equals(entry.fingerprint())
+        || entry.plan().getPlannedAt().plus(maxAge).isBefore(Instant.now())) {
+      return Optional.empty();
+    }
+    return Optional.of(entry);
+  }
+
+  public Entry put(String fingerprint, CandidateDiscovery discovery, List<Movie> movies,
+      OptionalLong oldestLeftBehind, ArchivePlan plan) {
+    var entry = new Entry(fingerprint, discovery, movies, oldestLeftBehind, plan);
+    if (fingerprint != null) {
+      latest.set(entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Drops the plan once it has been carried out.
+   */
+  public void invalidate(Entry entry) {
+    latest.compareAndSet(Objects.requireNonNull(entry), null);
+  }
+
+  /**
+   * A plan together with the discovery it was made from, the movies it selected and the oldest
+   * <code>lastViewedAt</code> of the candidates it did not select, which is all a run needs to
+   * carry it out.
+   */
+  public record Entry(String fingerprint, CandidateDiscovery discovery, List<Movie> movies,
+      OptionalLong oldestLeftBehind, ArchivePlan plan) {
+
+  }
+}
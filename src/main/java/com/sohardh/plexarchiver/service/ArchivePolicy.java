@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.dto.PolicyCandidate;
+
+/**
+ * Decides how worthwhile archiving a candidate is. One implementation is active per deployment,
+ * selected with <code>archive.policy</code>.
+ */
+public interface ArchivePolicy {
+
+  /**
+   * Scores the candidate. Candidates are archived highest score first, and candidates below
+   * <code>archive.policy.min-score</code> are not archived at all.
+   */
+  double score(PolicyCandidate candidate);
+
+  /**
+   * Whether {@link #score} looks at the volume usage of the candidate. Without a free space
+   * target, the filesystems of the candidates are only looked up when this is true.
+   */
+  default boolean usesVolumeUsage() {
+    return true;
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.PolicyCandidate;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Chooses which new candidates a run archives, and in which order.
+ * <p>
+ * Every candidate is scored by the active {@link ArchivePolicy}. Candidates below
+ * <code>archive.policy.min-score</code> are dropped and the rest are archived highest score
+ * first. With <code>archive.policy.free-space-target</code> above 0, candidates are only taken
+ * until that percentage of their filesystem would be free, so a run moves no more bytes than
+ * needed. That needs all candidates of the run before the first one is archived, see
+ * {@link Selection#isCapacityBound()}.
+ * <p>
+ * The filesystems of the candidates are only looked up when the free space target or the policy
+ * needs them. A filesystem is looked up once per device, as finding the filesystem of a path
+ * reads the whole mount table.
+ */
+@Slf4j
+@Service
+public class ArchivePolicyEngine {
+
+  private static final String UNKNOWN_VOLUME = "unknown";
+  private final ArchivePolicy archivePolicy;
+  private final FileMetadataCache fileMetadataCache;
+  private final Map<Object, FileStore> storesByDevice = new ConcurrentHashMap<>();
+  @Value("${archive.policy.min-score}")
+  private double minScore;
+  @Value("${archive.policy.free-space-target}")
+  private double freeSpaceTarget;
+
+  public ArchivePolicyEngine(ArchivePolicy archivePolicy, FileMetadataCache fileMetadataCache) {
+    this.archivePolicy = archivePolicy;
+    this.fileMetadataCache = fileMetadataCache;
+  }
+
+  /**
+   * Starts the selection of one run. Free space is measured once per filesystem and run.
+   */
+  public Selection start() {
+    return new Selection();
+  }
+
+  public class Selection {
+
+    private final Map<FileStore, Long> bytesToFree = new HashMap<>();
+    private final Map<FileStore, Double> usage = new HashMap<>();
+    private final Map<Path, FileStore> storesByDirectory = new HashMap<>();
+
+    public boolean isCapacityBound() {
+      return freeSpaceTarget > 0;
+    }
+
+    public List<Movie> select(List<Movie> candidates) {
+      return selectCandidates(candidates).stream().map(PolicyCandidate::getMovie).toList();
+    }
+
+    /**
+     * Like {@link #select}, but keeps the size and filesystem the policy saw for every selected
+     * movie.
+     */
+    public List<PolicyCandidate> selectCandidates(List<Movie> candidates) {
+      var scored = candidates.stream()
+          .map(this::toPolicyCandidate)
+          .map(candidate -> new Scored(candidate, archivePolicy.score(candidate)))
+          .filter(scoredCandidate -> scoredCandidate.score() >= minScore)
+          .sorted(Comparator.comparingDouble(Scored::score).reversed())
+          .toList();
+      if (!isCapacityBound()) {
+        return scored.stream().map(Scored::candidate).toList();
+      }
+
+      var selected = scored.stream().filter(this::takeCapacity).map(Scored::candidate).toList();
+      log.info("Selected {} of {} candidates to reach the free space target.", selected.size(),
+          candidates.size());
+      return selected;
+    }
+
+    private boolean takeCapacity(Scored scored) {
+      FileStore store = store(scored.candidate().getMovie());
+      if (store == null) {
+        return false;
+      }
+      long remaining = bytesToFree.get(store);
+      if (remaining <= 0) {
+        return false;
+      }
+      bytesToFree.put(store, remaining - scored.candidate().getSize());
+      return true;
+    }
+
+    private PolicyCandidate toPolicyCandidate(Movie movie) {
+      long size = fileMetadataCache.size(movie);
+      FileStore store = isCapacityBound() || archivePolicy.usesVolumeUsage() ? store(movie) : null;
+      return new PolicyCandidate(movie, size, store == null ? UNKNOWN_VOLUME : store.name(),
+          store == null ? 0 : usage.get(store));
+    }
+
+    /**
+     * The filesystem of the movie's first file, looked up once per directory.
+     */
+    private FileStore store(Movie movie) {
+      if (movie.getFiles().isEmpty()) {
+        return null;
+      }
+      Path directory = Path.of(movie.getFiles().get(0)).getParent();
+      try {
+        FileStore store = storesByDirectory.get(directory);
+        if (store == null) {
+          store = lookUpStore(directory);
+          storesByDirectory.put(directory, store);
+        }
+        if (!usage.containsKey(store)) {
+          long total = store.getTotalSpace();
+          long usable = store.getUsableSpace();
+          usage.put(store, total == 0 ? 0 : 1 - (double) usable / total);
+          bytesToFree.put(store, (long) (total * freeSpaceTarget / 100) - usable);
+        }
+        return store;
+      } catch (IOException e) {
+        log.debug("Could not read the filesystem of {}.", movie.getFiles().get(0));
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Reads the device of the directory, which is a plain stat, and only looks the filesystem up
+   * for a device not seen before. Platforms without a device attribute look it up every time.
+   */
+  private FileStore lookUpStore(Path directory) throws IOException {
+    Object device;
+    try {
+      device = Files.getAttribute(directory, "unix:dev");
+    } catch (UnsupportedOperationException | IllegalArgumentException e) {
+      return Files.getFileStore(directory);
+    }
+    FileStore store = storesByDevice.get(device);
+    if (store == null) {
+      store = Files.getFileStore(directory);
+      storesByDevice.put(device, store);
+    }
+    return store;
+  }
+
+  private record Scored(PolicyCandidate candidate, double score) {
+
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.dto.ArchivedFile;
+
+/**
+ * Moves movie files to the archive. One implementation is active per deployment, selected with
+ * <code>archive.transport</code>.
+ */
+public interface ArchiveTransport {
+
+  /**
+   * The host the files are sent to. Used to limit the number of concurrent transfers per host.
+   */
+  String host();
+
+  /**
+   * Copies the file to the archive. Must only return once the copy is complete. When
+   * <code>archive.verify.enabled</code> is set, the content digest has to be computed while the
+   * file is copied, without reading the source a second time.
+   */
+  ArchivedFile archive(String movieFilePath) throws Exception;
+
+  /**
+   * Reads the backup back from the archive and returns its digest with
+   * <code>archive.verify.algorithm</code>.
+   */
+  String checksum(String backupFile) throws Exception;
+
+  /**
+   * Copies the backup back to the original path, replacing the sample there. The original is only
+   * replaced once the copy is complete and, when an expected checksum is given, matches it.
+   */
+  void restore(String backupFile, String originalFilePath, String expectedChecksum)
+      throws Exception;
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.dao.model.SectionCheckpointModel;
+import com.sohardh.plexarchiver.dao.repository.SectionCheckpointRepository;
+import com.sohardh.plexarchiver.dto.CandidateDiscovery;
+import com.sohardh.plexarchiver.dto.PlexSection;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Decides which plex filters a run has to execute for every movie section.
+ * <p>
+ * A full run asks for every movie watched more than a year ago. An incremental run only asks for
+ * the movies that crossed the one year mark since the last run, and for the candidates plex
+ * updated since then. A section falls back to a full run when it has no checkpoint yet or when
+ * its last full run is older than <code>plex.incremental.full-sync-interval</code>. The updated
+ * candidates are not asked for when the <code>updatedAt</code> plex reports for the section is
+ * still the one of the last run.
+ */
+@Service
+@Slf4j
+public class CandidateDiscoveryService {
+
+  private static final String WATCHED = "viewCount>=1";
+  private final PlexFetchDataService plexFetchDataService;
+  private final SectionCheckpointRepository sectionCheckpointRepository;
+  @Value("${plex.incremental.enabled}")
+  private boolean incrementalEnabled;
+  @Value("${plex.incremental.full-sync-interval}")
+  private Duration fullSyncInterval;
+
+  public CandidateDiscoveryService(PlexFetchDataService plexFetchDataService,
+      SectionCheckpointRepository sectionCheckpointRepository) {
+    this.plexFetchDataService = plexFetchDataService;
+    this.sectionCheckpointRepository = sectionCheckpointRepository;
+  }
+
+  public CandidateDiscovery discover() {
+    long now = Instant.now().getEpochSecond();
+    long cutoff = ZonedDateTime.now(ZoneId.systemDefault()).minusYears(1).toEpochSecond();
+    List<PlexSection> sections = plexFetchDataService.movieSections().collectList().block();
+
+    Map<String, SectionCheckpointModel> previous = new HashMap<>();
+    if (incrementalEnabled) {
+      sectionCheckpointRepository
+          .findAllById(sections.stream().map(PlexSection::getKey).toList())
+          .forEach(checkpoint -> previous.put(checkpoint.getSectionId(), checkpoint));
+    }
+
+    Map<String, List<String>> filtersBySection = new LinkedHashMap<>();
+    List<SectionCheckpointModel> checkpoints = new ArrayList<>();
+    for (PlexSection section : sections) {
+      String key = section.getKey();
+      SectionCheckpointModel checkpoint = previous.get(key);
+      if (checkpoint == null || needsFullSync(checkpoint, now)) {
+        log.info("Running a full candidate discovery for section {}.", key);
+        filtersBySection.put(key, List.of(WATCHED + "&lastViewedAt<=" + cutoff));
+        checkpoints.add(new SectionCheckpointModel(key, cutoff, now, now,
+            section.getUpdatedAt()));
+        continue;
+      }
+      List<String> filters = new ArrayList<>();
+      filters.add(WATCHED + "&lastViewedAt>>=" + checkpoint.getLastViewedCutoff()
+          + "&lastViewedAt<=" + cutoff);
+      long updatedAtMark = checkpoint.getUpdatedAtMark();
+      if (isUnchanged(section, checkpoint)) {
+        log.debug("Section {} is unchanged since the last run.", key);
+      } else {
+        filters.add(WATCHED + "&lastViewedAt<=" + cutoff + "&updatedAt>>=" + updatedAtMark);
+        updatedAtMark = now;
+      }
+      filtersBySection.put(key, filters);
+      checkpoints.add(new SectionCheckpointModel(key, cutoff, updatedAtMark,
+          checkpoint.getLastFullSyncAt(), section.getUpdatedAt()));
+    }
+    return new CandidateDiscovery(filtersBySection, checkpoints);
+  }
+
+  /**
+   * Stores the checkpoints of a discovery. Must only be called once all of its candidates have
+   * been processed, otherwise a failed run would skip candidates on the next run.
+   * <p>
+   * Candidates the run left behind, because they failed or were not selected, have to be asked
+   * for again by the next run. The last viewed cutoff is therefore kept below the oldest of them.
+   * Candidates do not carry their section, so this holds back every section.
+   *
+   * @param oldestLeftBehind the oldest <code>lastViewedAt</code> of the candidates left behind,
+   *                         empty when every candidate was archived or was archived already
+   */
+  public void commit(CandidateDiscovery discovery, OptionalLong oldestLeftBehind) {
+    if (!incrementalEnabled) {
+      return;
+    }
+    if (oldestLeftBehind.isEmpty()) {
+      sectionCheckpointRepository.saveAll(discovery.getCheckpoints());
+      return;
+    }
+    long cutoff = oldestLeftBehind.getAsLong() - 1;
+    log.info("Holding the checkpoints back to {} for the candidates left behind.", cutoff);
+    sectionCheckpointRepository.saveAll(discovery.getCheckpoints().stream()
+        .map(checkpoint -> checkpoint.getLastViewedCutoff() <= cutoff ? checkpoint
+            : new SectionCheckpointModel(checkpoint.getSectionId(), cutoff,
+                checkpoint.getUpdatedAtMark(), checkpoint.getLastFullSyncAt(),
+                checkpoint.getSectionUpdatedAt()))
+        .toList());
+  }
+
+  private boolean isUnchanged(PlexSection section, SectionCheckpointModel checkpoint) {
+    return section.getUpdatedAt() > 0
+        && Long.valueOf(section.getUpdatedAt()).equals(checkpoint.getSectionUpdatedAt());
+  }
+
+  private boolean needsFullSync(SectionCheckpointModel checkpoint, long now) {
+    return checkpoint.getLastViewedCutoff() == null || checkpoint.getUpdatedAtMark() == null
+        || checkpoint.getLastFullSyncAt() == null
+        || checkpoint.getLastFullSyncAt() + fullSyncInterval.toSeconds() <= now;
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.dao.model.ArchiveWorkModel;
+import com.sohardh.plexarchiver.dao.model.MovieFileModel;
+import com.sohardh.plexarchiver.dao.repository.ArchiveWorkRepository;
+import com.sohardh.plexarchiver.util.ClusterPartition;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Work queue of a cluster of archivers sharing one database.
+ * <p>
+ * With <code>archive.cluster.enabled</code>, the instance holding the archive lease only plans:
+ * it persists the movies to archive and queues them in <code>pa.archive_work</code>. Every node
+ * then claims queued movies of its {@link ClusterPartition} and archives them where their files
+ * are local. Claims are kept alive by a heartbeat, and the claims of a node that stopped are
+ * queued again after <code>archive.cluster.claim-ttl</code>. A node that was only paused may find
+ * its claims taken by another node, so it checks a claim with {@link #checkClaim} before every
+ * swap.
+ */
+@Service
+@Slf4j
+public class ClusterWorkService {
+
+  private final ArchiveWorkRepository archiveWorkRepository;
+  private final String owner;
+  @Value("${archive.cluster.enabled}")
+  private boolean enabled;
+  @Value("${archive.cluster.partition}")
+  private ClusterPartition partition;
+  @Value("${archive.cluster.node-count}")
+  private int nodeCount;
+  @Value("${archive.cluster.node-index}")
+  private int nodeIndex;
+  @Value("${archive.cluster.local-paths}")
+  private String[] localPaths;
+  @Value("${archive.cluster.claim-size}")
+  private int claimSize;
+  @Value("${archive.cluster.claim-ttl}")
+  private Duration claimTtl;
+  @Value("${archive.cluster.heartbeat-interval}")
+  private Duration heartbeatInterval;
+  @Value("${archive.cluster.max-attempts}")
+  private int maxAttempts;
+  private List<String> localPrefixes;
+  private ScheduledExecutorService heartbeatExecutor;
+
+  public ClusterWorkService(ArchiveWorkRepository archiveWorkRepository,
+      JobRunService jobRunService) {
+    this.archiveWorkRepository = archiveWorkRepository;
+    this.owner = jobRunService.owner();
+  }
+
+  @PostConstruct
+  void init() {
+    if (!enabled) {
+      return;
+    }
+    if (heartbeatInterval.compareTo(claimTtl) >= 0) {
+      throw new IllegalStateException(String.format(
+          "archive.cluster.heartbeat-interval (%s) must be shorter than "
+              + "archive.cluster.claim-ttl (%s)", heartbeatInterval, claimTtl));
+    }
+    if (partition == ClusterPartition.GUID_HASH && (nodeIndex < 0 || nodeIndex >= nodeCount)) {
+      throw new IllegalStateException(String.format(
+          "archive.cluster.node-index (%d) must be between 0 and archive.cluster.node-count (%d)",
+          nodeIndex, nodeCount));
+    }
+    localPrefixes = Arrays.stream(localPaths).map(String::trim).filter(path -> !path.isEmpty())
+        .map(ClusterWorkService::directoryPrefix).toList();
+    if (partition == ClusterPartition.VOLUME && localPrefixes.isEmpty()) {
+      throw new IllegalStateException(
+          "archive.cluster.local-paths must not be empty with the VOLUME partition");
+    }
+    heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("cluster-heartbeat-"));
+    heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, heartbeatInterval.toMillis(),
+        heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+    log.info("Cluster node {} claims {} movies at a time with the {} partition.", owner,
+        claimSize, partition);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    if (heartbeatExecutor != null) {
+      heartbeatExecutor.shutdownNow();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Queues the movies with their files. Movies without files have nothing to archive and are
+   * skipped, and movies that are in the queue already keep their place.
+   */
+  public void enqueue(Map<String, List<MovieFileModel>> filesByGuid) {
+    List<ArchiveWorkModel> work = filesByGuid.entrySet().stream()
+        .filter(movie -> !movie.getValue().isEmpty())
+        .map(movie -> {
+          var archiveWork = new ArchiveWorkModel();
+          archiveWork.setGuid(movie.getKey());
+          archiveWork.setGuidHash(movie.getKey().hashCode() & Integer.MAX_VALUE);
+          archiveWork.setSourceDir(directoryPrefix(
+              Path.of(movie.getValue().get(0).getOriginalFile()).getParent().toString()));
+          return archiveWork;
+        }).toList();
+    if (!work.isEmpty()) {
+      archiveWorkRepository.enqueueAll(work);
+    }
+  }
+
+  /**
+   * Queues the stale claims of stopped nodes again, then claims the next movies of this node's
+   * partition.
+   *
+   * @return the guids of the claimed movies
+   */
+  public List<String> claim() {
+    int requeued = archiveWorkRepository.requeueStale(claimTtl.toSeconds());
+    if (requeued > 0) {
+      log.warn("Queued {} claim(s) of stopped nodes again.", requeued);
+    }
+    return switch (partition) {
+      case ANY -> archiveWorkRepository.claim(owner, claimSize);
+      case GUID_HASH ->
+          archiveWorkRepository.claimByGuidHash(owner, claimSize, nodeCount, nodeIndex);
+      case VOLUME -> archiveWorkRepository.claimByVolume(owner, claimSize, localPrefixes);
+    };
+  }
+
+  /**
+   * Fails once the claim on the movie has been lost, because this node missed its heartbeats and
+   * the movie was queued again.
+   *
+   * @throws CancellationException when this node no longer holds the claim
+   */
+  public void checkClaim(String guid) {
+    if (archiveWorkRepository.isClaimed(guid, owner) == 0) {
+      throw new CancellationException(String.format("Lost the claim on %s.", guid));
+    }
+  }
+
+  /**
+   * Removes the movie from the queue once it is archived, or once it was rolled back and will be
+   * planned again.
+   */
+  public void complete(String guid) {
+    if (archiveWorkRepository.complete(guid, owner) == 0) {
+      log.warn("The claim on {} was lost before it completed.", guid);
+    }
+  }
+
+  /**
+   * Gives the claim back after a failed attempt, see {@link ArchiveWorkRepository#release}.
+   */
+  public void release(String guid) {
+    if (archiveWorkRepository.release(guid, owner, maxAttempts) == 0) {
+      log.warn("The claim on {} was lost before it was released.", guid);
+    }
+  }
+
+  private void heartbeat() {
+    try {
+      archiveWorkRepository.heartbeat(owner);
+    } catch (Exception e) {
+      log.error("Could not extend the claims of this node.", e);
+    }
+  }
+
+  /**
+   * Ends the directory with a separator, so <code>/mnt/disk1</code> does not match
+   * <code>/mnt/disk10</code>.
+   */
+  private static String directoryPrefix(String directory) {
+    return directory.endsWith("/") ? directory : directory + "/";
+  }
+}
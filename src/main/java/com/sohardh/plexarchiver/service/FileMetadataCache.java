@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.dao.model.FileMetadataModel;
+import com.sohardh.plexarchiver.dao.repository.FileMetadataRepository;
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.MoviePart;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the metadata of movie files in <code>pa.file_metadata</code>, so decisions based on file
+ * sizes do not have to stat every file of the library, and wake every disk of the array, on each
+ * run.
+ * <p>
+ * Every run stores the part id, size and duration plex reports for its candidates. A file is
+ * only stat-ed when plex does not know its size and the cached attributes are older than
+ * <code>metadata.cache.stat-max-age</code>. Entries plex has not reported for
+ * <code>metadata.cache.evict-after</code>, and those of files found missing, are evicted.
+ */
+@Slf4j
+@Service
+public class FileMetadataCache {
+
+  private final FileMetadataRepository fileMetadataRepository;
+  @Value("${metadata.cache.stat-max-age}")
+  private Duration statMaxAge;
+  @Value("${metadata.cache.evict-after}")
+  private Duration evictAfter;
+
+  public FileMetadataCache(FileMetadataRepository fileMetadataRepository) {
+    this.fileMetadataRepository = fileMetadataRepository;
+  }
+
+  public void observe(Collection<Movie> movies) {
+    List<MoviePart> parts = movies.stream()
+        .flatMap(movie -> movie.getParts().stream())
+        .toList();
+    if (!parts.isEmpty()) {
+      fileMetadataRepository.upsertParts(parts, Instant.now());
+    }
+  }
+
+  /**
+   * Total size of the movie's files, taken from plex where it is known.
+   */
+  public long size(Movie movie) {
+    long size = 0;
+    for (MoviePart part : movie.getParts()) {
+      if (part.getSize() > 0) {
+        size += part.getSize();
+        continue;
+      }
+      size += stat(part.getFile()).map(FileMetadataModel::getSize).orElse(0L);
+    }
+    return size;
+  }
+
+  /**
+   * Returns the cached metadata of the file, and only reads its attributes when they are unknown
+   * or older than <code>metadata.cache.stat-max-age</code>. Empty when the file does not exist.
+   */
+  public Optional<FileMetadataModel> stat(String path) {
+    FileMetadataModel metadata = fileMetadataRepository.findById(path).orElse(null);
+    if (metadata != null && metadata.getStatAt() != null && metadata.getSize() != null
+        && metadata.getStatAt().plus(statMaxAge).isAfter(Instant.now())) {
+      return Optional.of(metadata);
+    }
+    return refresh(path, metadata);
+  }
+
+  /**
+   * Stores the checksum computed while the file was read, along with the attributes the file has
+   * now.
+   */
+  public void recordChecksum(String path, String checksum) {
+    FileMetadataModel metadata = fileMetadataRepository.findById(path).orElse(null);
+    refresh(path, metadata).ifPresent(refreshed -> {
+      refreshed.setChecksum(checksum);
+      fileMetadataRepository.save(refreshed);
+    });
+  }
+
+  public int evictUnseen() {
+    return fileMetadataRepository.deleteUnseenSince(Instant.now().minus(evictAfter));
+  }
+
+  private Optional<FileMetadataModel> refresh(String path, FileMetadataModel cached) {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(Path.of(path), BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      if (cached != null) {
+        log.debug("Evicting {}, the file no longer exists.", path);
+        fileMetadataRepository.delete(cached);
+      }
+      return Optional.empty();
+    } catch (IOException e) {
+      log.debug("Could not read the attributes of {}.", path);
+      return Optional.ofNullable(cached);
+    }
+
+    FileMetadataModel metadata = cached;
+    if (metadata == null) {
+      metadata = new FileMetadataModel();
+      metadata.setPath(path);
+    }
+    long modifiedAt = attributes.lastModifiedTime().toMillis();
+    String fileKey = attributes.fileKey() == null ? null : attributes.fileKey().toString();
+    boolean changed = !Objects.equals(metadata.getSize(), attributes.size())
+        || !Objects.equals(metadata.getModifiedAt(), modifiedAt)
+        || !Objects.equals(metadata.getFileKey(), fileKey);
+    if (changed) {
+      metadata.setChecksum(null);
+    }
+    metadata.setSize(attributes.size());
+    metadata.setModifiedAt(modifiedAt);
+    metadata.setFileKey(fileKey);
+    metadata.setStatAt(Instant.now());
+    return Optional.of(fileMetadataRepository.save(metadata));
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.dao.model.JobRunModel;
+import com.sohardh.plexarchiver.dao.model.JobRunStatus;
+import com.sohardh.plexarchiver.dao.repository.JobLeaseRepository;
+import com.sohardh.plexarchiver.dao.repository.JobRunRepository;
+import com.sohardh.plexarchiver.dto.ArchiveRunSummary;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs a job on at most one instance at a time.
+ * <p>
+ * A run first takes the job's lease in <code>pa.job_lease</code> and keeps it alive with a
+ * heartbeat every <code>job.lease.heartbeat-interval</code>. When an instance dies, its lease
+ * expires after <code>job.lease.ttl</code> and the next instance to take it marks the dead
+ * instance's run as abandoned. Every run is recorded in <code>pa.job_run</code> with its counts
+ * and outcome.
+ * <p>
+ * A run that loses its lease, e.g. after a long pause, is not stopped from the outside. It has to
+ * call {@link #checkLease} before every step another instance could collide with.
+ * <p>
+ * Different jobs run independently of each other, each with its own lease.
+ */
+@Service
+@Slf4j
+public class JobRunService {
+
+  private static final int MESSAGE_LENGTH = 2048;
+  private final JobLeaseRepository jobLeaseRepository;
+  private final JobRunRepository jobRunRepository;
+  private final String owner;
+  private final Set<String> runningJobs = ConcurrentHashMap.newKeySet();
+  private final Map<String, AtomicBoolean> leaseLostByJob = new ConcurrentHashMap<>();
+  @Value("${job.lease.ttl}")
+  private Duration leaseTtl;
+  @Value("${job.lease.heartbeat-interval}")
+  private Duration heartbeatInterval;
+  private ScheduledExecutorService heartbeatExecutor;
+
+  public JobRunService(JobLeaseRepository jobLeaseRepository,
+      JobRunRepository jobRunRepository) {
+    this.jobLeaseRepository = jobLeaseRepository;
+    this.jobRunRepository = jobRunRepository;
+    this.owner = hostname() + "-" + UUID.randomUUID();
+  }
+
+  @PostConstruct
+  void init() {
+    if (heartbeatInterval.compareTo(leaseTtl) >= 0) {
+      throw new IllegalStateException(String.format(
+          "job.lease.heartbeat-interval (%s) must be shorter than job.lease.ttl (%s)",
+          heartbeatInterval, leaseTtl));
+    }
+    heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("job-heartbeat-"));
+  }
+
+  @PreDestroy
+  void shutdown() {
+    heartbeatExecutor.shutdownNow();
+  }
+
+  /**
+   * Identifies this instance as the owner of leases and claims. It is unique per process, so a
+   * restarted instance never takes over what its previous process held.
+   */
+  public String owner() {
+    return owner;
+  }
+
+  /**
+   * Fails once the running job lost its lease, either because the heartbeat found it taken over
+   * or because the database no longer shows this instance holding it.
+   *
+   * @throws CancellationException when this instance is not running the job under its lease
+   */
+  public void checkLease(String jobName) {
+    AtomicBoolean leaseLost = leaseLostByJob.get(jobName);
+    if (leaseLost == null || leaseLost.get()
+        || jobLeaseRepository.isHeld(jobName, owner) == 0) {
+      if (leaseLost == null || !leaseLost.getAndSet(true)) {
+        log.error("Lost the lease of {}, cancelling the run.", jobName);
+      }
+      throw new CancellationException(String.format("Lost the lease of %s.", jobName));
+    }
+  }
+
+  /**
+   * Runs the job when its lease can be taken.
+   *
+   * @return the summary of the run, or empty when another run holds the lease
+   */
+  public Optional<ArchiveRunSummary> runExclusively(String jobName,
+      Supplier<ArchiveRunSummary> job) {
+    if (!runningJobs.add(jobName)) {
+      log.info("{} is already running on this instance. Skipping.", jobName);
+      return Optional.empty();
+    }
+    try {
+      if (jobLeaseRepository.tryAcquire(jobName, owner, leaseTtl.toSeconds()) == 0) {
+        log.info("{} is running on another instance. Skipping.", jobName);
+        return Optional.empty();
+      }
+      try {
+        return Optional.of(runWithHeartbeat(jobName, job));
+      } finally {
+        jobLeaseRepository.release(jobName, owner);
+      }
+    } finally {
+      runningJobs.remove(jobName);
+    }
+  }
+
+  private ArchiveRunSummary runWithHeartbeat(String jobName, Supplier<ArchiveRunSummary> job) {
+    int abandoned = jobRunRepository.abandonRunning(jobName);
+    if (abandoned > 0) {
+      log.warn("Reclaimed {} abandoned run(s) of {}.", abandoned, jobName);
+    }
+
+    var run = new JobRunModel();
+    run.setJobName(jobName);
+    run.setOwner(owner);
+    run.setStatus(JobRunStatus.RUNNING);
+    run.setStartedAt(Instant.now());
+    run.setHeartbeatAt(run.getStartedAt());
+    run = jobRunRepository.save(run);
+
+    Long jobRunId = run.getJobRunId();
+    long interval = heartbeatInterval.toMillis();
+    var leaseLost = new AtomicBoolean();
+    leaseLostByJob.put(jobName, leaseLost);
+    ScheduledFuture<?> heartbeat = heartbeatExecutor.scheduleAtFixedRate(
+        () -> heartbeat(jobName, jobRunId, leaseLost), interval, interval, TimeUnit.MILLISECONDS);
+    try {
+      ArchiveRunSummary summary = job.get();
+      heartbeat.cancel(false);
+      boolean succeeded = summary.isCompleted() && !leaseLost.get();
+      finish(run, succeeded ? JobRunStatus.SUCCEEDED : JobRunStatus.FAILED, summary,
+          leaseLost.get() ? "Lost the lease." : null);
+      return summary;
+    } catch (RuntimeException | Error e) {
+      heartbeat.cancel(false);
+      finish(run, JobRunStatus.FAILED, null, e.toString());
+      throw e;
+    } finally {
+      leaseLostByJob.remove(jobName);
+    }
+  }
+
+  private void heartbeat(String jobName, Long jobRunId, AtomicBoolean leaseLost) {
+    try {
+      if (jobLeaseRepository.renew(jobName, owner, leaseTtl.toSeconds()) == 0) {
+        if (!leaseLost.getAndSet(true)) {
+          log.error(String.format("Lost the lease of %s, cancelling run %d.", jobName,
+              jobRunId));
+        }
+        return;
+      }
+      jobRunRepository.heartbeat(jobRunId);
+    } catch (Exception e) {
+      log.error(String.format("Could not renew the lease of %s.", jobName), e);
+    }
+  }
+
+  private void finish(JobRunModel run, JobRunStatus status, ArchiveRunSummary summary,
+      String message) {
+    run.setStatus(status);
+    run.setEndedAt(Instant.now());
+    run.setHeartbeatAt(run.getEndedAt());
+    if (summary != null) {
+      run.setCandidates(summary.getCandidates());
+      run.setArchivedMovies(summary.getArchivedMovies());
+      run.setArchivedFiles(summary.getArchivedFiles());
+      run.setArchivedBytes(summary.getArchivedBytes());
+      run.setFailedMovies(summary.getFailedMovies());
+    }
+    if (message != null && message.length() > MESSAGE_LENGTH) {
+      message = message.substring(0, MESSAGE_LENGTH);
+    }
+    run.setMessage(message);
+    try {
+      jobRunRepository.save(run);
+    } catch (Exception e) {
+      log.error(String.format("Could not record the end of run %d.", run.getJobRunId()), e);
+    }
+  }
+
+  private static String hostname() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return "unknown";
+    }
+  }
+}
@@ -19,7 +19,31 @@
 
 package com.sohardh.plexarchiver.service;
 
+import com.sohardh.plexarchiver.dto.ArchivePlan;
+import com.sohardh.plexarchiver.dto.ArchiveRunSummary;
+
 public interface MovieArchiveService {
 
-  void archiveMovies();
+  /**
+   * Name of the lease that archive runs and the recovery sweep take.
+   */
+  String JOB_NAME = "movie-archive";
+
+  ArchiveRunSummary archiveMovies();
+
+  /**
+   * Works out what {@link #archiveMovies()} would do without moving any data. The plan is cached
+   * and carried out by the next run as long as its inputs are unchanged.
+   */
+  ArchivePlan planArchive();
+
+  /**
+   * Finishes or rolls back the movies a previous run left unfinished.
+   */
+  ArchiveRunSummary recoverUnfinished();
+
+  /**
+   * Claims the next movies of this node from the cluster work queue and archives them.
+   */
+  ArchiveRunSummary archiveClaimedMovies();
 }
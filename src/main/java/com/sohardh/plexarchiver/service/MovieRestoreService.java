@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+public interface MovieRestoreService {
+
+  /**
+   * Queues all files of an archived movie to be restored.
+   *
+   * @return the number of files queued
+   */
+  int requestRestore(String guid);
+
+  /**
+   * Queues the archived movies whose sample has been played in plex.
+   *
+   * @return the number of files queued
+   */
+  int queuePlayedSamples();
+
+  /**
+   * Forgets the movies restored longer than <code>restore.retention</code> ago, so archive runs
+   * may take them again.
+   *
+   * @return the number of movies forgotten
+   */
+  int releaseRestoredMovies();
+}
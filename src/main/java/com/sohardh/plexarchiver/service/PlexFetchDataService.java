@@ -19,47 +19,158 @@
 
 package com.sohardh.plexarchiver.service;
 
-import java.text.MessageFormat;
-import java.util.Calendar;
-import java.util.Date;
+import static com.sohardh.plexarchiver.util.PlexDataParserUtil.parsePlexResponse;
+
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.PlexSection;
+import com.sohardh.plexarchiver.util.PlexDataParserUtil;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.xml.stream.XMLStreamException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Service
 @Slf4j
 public class PlexFetchDataService {
 
-  private static final String VIEW_COUNT_FIELD = "viewCount";
-  private static final String LAST_VIEWED_AT = "lastViewedAt";
-  @Value("${plex.hostname}")
-  private String plexHostName;
-  @Value("${plex.port}")
-  private String plexPort;
-  @Value("${plex.token}")
-  private String plexToken;
-
-  public Optional<String> getMoviesWatchedMoreThanOneYearAgo() {
+  private static final String SECTIONS_URI = "/library/sections";
+  private static final String SESSIONS_URI = "/status/sessions";
+  private static final String SECTION_URI = "/library/sections/{section}/all?";
+  private static final String PAGE_QUERY =
+      "&X-Plex-Container-Start={start}&X-Plex-Container-Size={size}";
+  private final WebClient plexWebClient;
+  private final PlexResponseCache plexResponseCache;
+  private final ArchiveMetrics archiveMetrics;
+  @Value("${plex.sections}")
+  private List<String> sections;
+  @Value("${plex.page.size}")
+  private int pageSize;
+  @Value("${plex.page.concurrency}")
+  private int pageConcurrency;
 
-    Calendar instance = Calendar.getInstance();
-    instance.setTime(new Date());
-    instance.add(Calendar.YEAR, -1);
+  public PlexFetchDataService(WebClient plexWebClient, PlexResponseCache plexResponseCache,
+      ArchiveMetrics archiveMetrics) {
+    this.plexWebClient = plexWebClient;
+    this.plexResponseCache = plexResponseCache;
+    this.archiveMetrics = archiveMetrics;
+  }
 
-    String urlBuilder = MessageFormat.format(
-        "{0}:{1}/library/sections/2/all?X-Plex-Token={2}&{3}>=1&{4}<={5}",
-        plexHostName, plexPort, plexToken, VIEW_COUNT_FIELD, LAST_VIEWED_AT,
-        String.valueOf(instance.getTimeInMillis()));
-    WebClient webClient = WebClient.builder()
-        .baseUrl(urlBuilder)
-        .build();
+  /**
+   * Fetches every page of candidates as raw responses, one response per page. Empty if any page
+   * could not be fetched.
+   *
+   * @param filtersBySection plex filters, e.g. <code>viewCount>=1&lastViewedAt<=1650000000</code>,
+   *                         to run against each section.
+   */
+  public Optional<List<String>> getCandidatePages(Map<String, List<String>> filtersBySection) {
     try {
-      return webClient.get().retrieve().bodyToMono(String.class)
+      return pages(filtersBySection)
+          .flatMap(page -> DataBufferUtils.join(fetchPage(page)).map(buffer -> {
+            String response = buffer.toString(StandardCharsets.UTF_8);
+            DataBufferUtils.release(buffer);
+            return response;
+          }), pageConcurrency)
+          .collectList()
           .blockOptional();
     } catch (Exception e) {
       log.error("An Error occurred while fetch data from plex.", e);
       return Optional.empty();
     }
   }
+
+  /**
+   * Streams the same candidates as {@link #getCandidatePages(Map)}. Up to
+   * <code>plex.page.concurrency</code> pages are requested at once across all sections and each
+   * page body is parsed chunk by chunk, so movies are emitted as soon as they are complete.
+   * Movies of different pages are interleaved, and a movie matching more than one filter of a
+   * section is only emitted once.
+   */
+  public Flux<Movie> streamCandidates(Map<String, List<String>> filtersBySection) {
+    Flux<Movie> movies = pages(filtersBySection)
+        .flatMap(page -> parsePlexResponse(fetchPage(page), log), pageConcurrency);
+    boolean overlapping = filtersBySection.values().stream()
+        .anyMatch(filters -> filters.size() > 1);
+    return overlapping ? movies.distinct(Movie::getGuid) : movies;
+  }
+
+  /**
+   * The configured <code>plex.sections</code>, or every movie section of the server when none
+   * are configured. The section listing is requested conditionally, as it only changes when plex
+   * changes a section. A configured section plex does not list has an unknown
+   * <code>updatedAt</code>.
+   */
+  public Flux<PlexSection> movieSections() {
+    return plexResponseCache.get(SECTIONS_URI)
+        .flatMapIterable(response -> {
+          List<PlexSection> movieSections;
+          try {
+            movieSections = PlexDataParserUtil.parseMovieSections(response);
+          } catch (Exception e) {
+            throw Exceptions.propagate(e);
+          }
+          if (sections.isEmpty()) {
+            return movieSections;
+          }
+          Map<String, PlexSection> byKey = movieSections.stream()
+              .collect(Collectors.toMap(PlexSection::getKey, Function.identity()));
+          return sections.stream()
+              .map(key -> byKey.getOrDefault(key, new PlexSection(key, 0)))
+              .toList();
+        });
+  }
+
+  /**
+   * The number of sessions plex is currently streaming.
+   */
+  public int activeSessions() throws XMLStreamException {
+    String response = plexWebClient.get().uri(SESSIONS_URI).retrieve().bodyToMono(String.class)
+        .block();
+    return response == null ? 0 : PlexDataParserUtil.parseTotalSize(response);
+  }
+
+  private Flux<Page> pages(Map<String, List<String>> filtersBySection) {
+    return Flux.fromIterable(filtersBySection.entrySet())
+        .concatMap(entry -> Flux.fromIterable(entry.getValue())
+            .map(filter -> new Page(entry.getKey(), filter, 0)))
+        .concatMap(query -> countCandidates(query)
+            .flatMapMany(totalSize -> Flux.range(0, (totalSize + pageSize - 1) / pageSize))
+            .map(page -> new Page(query.section(), query.filter(), page * pageSize)));
+  }
+
+  private Mono<Integer> countCandidates(Page query) {
+    return plexWebClient.get()
+        .uri(SECTION_URI + query.filter() + PAGE_QUERY, query.section(), 0, 0)
+        .retrieve().bodyToMono(String.class)
+        .map(response -> {
+          try {
+            return PlexDataParserUtil.parseTotalSize(response);
+          } catch (Exception e) {
+            throw Exceptions.propagate(e);
+          }
+        });
+  }
+
+  private Flux<DataBuffer> fetchPage(Page page) {
+    Flux<DataBuffer> body = plexWebClient.get()
+        .uri(SECTION_URI + page.filter() + PAGE_QUERY, page.section(), page.start(), pageSize)
+        .retrieve()
+        .bodyToFlux(DataBuffer.class);
+    return archiveMetrics.recordFetch(body, page.section());
+  }
+
+  private record Page(String section, String filter, int start) {
+
+  }
 }
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+/**
+ * Keeps the last plex section listing together with the <code>ETag</code> and
+ * <code>Last-Modified</code> validators plex sent with it. The next listing is requested
+ * conditionally, and a <code>304 Not Modified</code> answer is served from the kept body.
+ * <p>
+ * A listing without any validator is not kept, so every request fetches it in full. Whether plex
+ * sends validators depends on the server version, and the
+ * <code>archiver.plex.conditional</code> metric shows whether any request was answered from the
+ * kept body. Unchanged sections are skipped by comparing their <code>updatedAt</code> either way,
+ * see {@link CandidateDiscoveryService}.
+ */
+@Service
+@Slf4j
+public class PlexResponseCache {
+
+  private final WebClient plexWebClient;
+  private final ArchiveMetrics archiveMetrics;
+  private volatile Entry last;
+
+  public PlexResponseCache(WebClient plexWebClient, ArchiveMetrics archiveMetrics) {
+    this.plexWebClient = plexWebClient;
+    this.archiveMetrics = archiveMetrics;
+  }
+
+  /**
+   * Requests the uri, conditionally when it is the uri of the kept response.
+   *
+   * @return the body of the response, or the kept body when plex answered that it is current.
+   */
+  public Mono<String> get(String uri) {
+    Entry cached = last != null && last.uri().equals(uri) ? last : null;
+    return plexWebClient.get().uri(uri)
+        .headers(headers -> {
+          if (cached == null) {
+            return;
+          }
+          if (cached.eTag() != null) {
+            headers.set(HttpHeaders.IF_NONE_MATCH, cached.eTag());
+          }
+          if (cached.lastModified() != null) {
+            headers.set(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified());
+          }
+        })
+        .exchangeToMono(response -> {
+          if (response.statusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED) && cached != null) {
+            log.debug("{} has not been modified, using the cached response.", uri);
+            archiveMetrics.recordConditionalFetch(true);
+            return response.releaseBody().thenReturn(cached.body());
+          }
+          if (!response.statusCode().is2xxSuccessful()) {
+            return response.createError();
+          }
+          HttpHeaders headers = response.headers().asHttpHeaders();
+          String eTag = headers.getFirst(HttpHeaders.ETAG);
+          String lastModified = headers.getFirst(HttpHeaders.LAST_MODIFIED);
+          return response.bodyToMono(String.class).defaultIfEmpty("").map(body -> {
+            archiveMetrics.recordConditionalFetch(false);
+            last = eTag == null && lastModified == null ? null
+                : new Entry(uri, body, eTag, lastModified);
+            return body;
+          });
+        });
+  }
+
+  private record Entry(String uri, String body, String eTag, String lastModified) {
+
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.sohardh.plexarchiver.util.ProcessUtil;
+import com.sohardh.plexarchiver.util.SampleLinkMode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Puts a sample in place of an archived original.
+ * <p>
+ * The sample is first linked or copied next to the original under a temporary name and then
+ * renamed over it, so the original is never half overwritten. The temporary name is hidden and
+ * has no media extension, so a plex scan running meanwhile skips it. Depending on
+ * <code>archive.sample.link-mode</code> the sample is hardlinked or reflinked, which costs no data
+ * writes and no extra space, and only copied when neither works. A method that failed once for a
+ * directory is not tried in it again. This is tracked per directory rather than per filesystem,
+ * since a pooled filesystem like an unRAID user share can place one directory on the disk of the
+ * sample and the next on another one.
+ */
+@Slf4j
+@Service
+public class SampleReplacer {
+
+  private static final String TEMPORARY_PREFIX = ".plexarchiver-";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+  private final Map<Path, Set<SampleLinkMode>> unsupported = new ConcurrentHashMap<>();
+  @Value("${archive.sample.link-mode}")
+  private SampleLinkMode linkMode;
+  @Value("${archive.transfer.timeout}")
+  private Duration timeout;
+
+  public void replace(Path sample, Path original)
+      throws IOException, InterruptedException, TimeoutException {
+    Path directory = original.toAbsolutePath().getParent();
+    Path temporary = directory.resolve(TEMPORARY_PREFIX + original.getFileName()
+        + TEMPORARY_SUFFIX);
+    Files.deleteIfExists(temporary);
+
+    for (SampleLinkMode mode : attempts()) {
+      if (unsupported.getOrDefault(directory, Set.of()).contains(mode)) {
+        continue;
+      }
+      try {
+        place(mode, sample, temporary);
+        Files.move(temporary, original, ATOMIC_MOVE, REPLACE_EXISTING);
+        return;
+      } catch (IOException e) {
+        Files.deleteIfExists(temporary);
+        if (mode == SampleLinkMode.COPY) {
+          throw e;
+        }
+        log.info("Could not {} the sample in {}, falling back. Cause: {}", mode, directory,
+            e.getMessage());
+        unsupported.computeIfAbsent(directory, key -> ConcurrentHashMap.newKeySet()).add(mode);
+      }
+    }
+  }
+
+  private List<SampleLinkMode> attempts() {
+    return switch (linkMode) {
+      case AUTO -> List.of(SampleLinkMode.HARDLINK, SampleLinkMode.REFLINK, SampleLinkMode.COPY);
+      case HARDLINK -> List.of(SampleLinkMode.HARDLINK, SampleLinkMode.COPY);
+      case REFLINK -> List.of(SampleLinkMode.REFLINK, SampleLinkMode.COPY);
+      case COPY -> List.of(SampleLinkMode.COPY);
+    };
+  }
+
+  void place(SampleLinkMode mode, Path sample, Path temporary)
+      throws IOException, InterruptedException, TimeoutException {
+    switch (mode) {
+      case HARDLINK -> Files.createLink(temporary, sample);
+      case REFLINK -> ProcessUtil.runChecked(List.of("cp", "--reflink=always", "--",
+          sample.toString(), temporary.toString()), timeout);
+      default -> Files.copy(sample, temporary);
+    }
+  }
+}
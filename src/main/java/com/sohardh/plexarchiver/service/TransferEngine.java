@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs file transfers in parallel.
+ * <p>
+ * Every destination host gets its own pool of <code>archive.transfer.max-per-host</code> workers,
+ * so a slow host never holds up transfers to another one. On top of that, no more than
+ * <code>archive.transfer.max-concurrent</code> transfers run at the same time over all hosts.
+ * Failed transfers are retried up to <code>archive.transfer.retries</code> times, unless they
+ * were cancelled. Cancelling the returned future interrupts the running attempt, which kills its
+ * child process.
+ */
+@Service
+@Slf4j
+public class TransferEngine {
+
+  private final Map<String, ExecutorService> hostExecutors = new ConcurrentHashMap<>();
+  @Value("${archive.transfer.max-concurrent}")
+  private int maxConcurrentTransfers;
+  @Value("${archive.transfer.max-per-host}")
+  private int maxTransfersPerHost;
+  @Value("${archive.transfer.retries}")
+  private int retries;
+  @Value("${archive.transfer.retry-backoff}")
+  private Duration retryBackoff;
+  private Semaphore transferPermits;
+
+  @PostConstruct
+  void init() {
+    transferPermits = new Semaphore(maxConcurrentTransfers, true);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    hostExecutors.values().forEach(ExecutorService::shutdownNow);
+  }
+
+  public <T> CompletableFuture<T> submit(String host, String name, TransferTask<T> task) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Future<?> worker = hostExecutors.computeIfAbsent(host, this::createHostExecutor)
+        .submit(() -> runWithRetries(name, task, result));
+    result.whenComplete((value, throwable) -> {
+      if (result.isCancelled()) {
+        worker.cancel(true);
+      }
+    });
+    return result;
+  }
+
+  private <T> void runWithRetries(String name, TransferTask<T> task, CompletableFuture<T> result) {
+    try {
+      result.complete(callWithRetries(name, () -> {
+        transferPermits.acquire();
+        try {
+          return task.run();
+        } finally {
+          transferPermits.release();
+        }
+      }));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.cancel(false);
+    } catch (Exception e) {
+      result.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Runs the task on the calling thread, retrying it like {@link #submit} does. The caller is
+   * responsible for limiting how many transfers run at once.
+   */
+  public <T> T callWithRetries(String name, TransferTask<T> task) throws Exception {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        return task.run();
+      } catch (InterruptedException | CancellationException e) {
+        throw e;
+      } catch (Exception e) {
+        if (attempt >= retries) {
+          log.error(String.format("Transfer %s failed after %d attempts.", name, attempt + 1), e);
+          throw e;
+        }
+        log.warn("Transfer {} failed, retrying ({}/{}). Cause: {}", name, attempt + 1, retries,
+            e.getMessage());
+        Thread.sleep(retryBackoff.multipliedBy(attempt + 1L).toMillis());
+      }
+    }
+  }
+
+  private ExecutorService createHostExecutor(String host) {
+    return Executors.newFixedThreadPool(maxTransfersPerHost,
+        new CustomizableThreadFactory("transfer-" + host + "-"));
+  }
+
+  @FunctionalInterface
+  public interface TransferTask<T> {
+
+    T run() throws Exception;
+  }
+}
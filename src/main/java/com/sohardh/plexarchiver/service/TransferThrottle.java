@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.service;
+
+import com.sohardh.plexarchiver.util.TokenBucket;
+import jakarta.annotation.PostConstruct;
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Limits the rate at which archive transfers read from the library and write to the archive.
+ * <p>
+ * Every direction has its own {@link TokenBucket}, shared by all transfers, with a base rate of
+ * <code>archive.throttle.read-rate</code> or <code>archive.throttle.write-rate</code> per second.
+ * A rate of 0 leaves the direction unlimited. The base rate is scaled by the percentage of the
+ * <code>archive.throttle.windows</code> entry the current time falls in, e.g.
+ * <code>07:00-23:00=10</code> for a trickle during the day, and 100% outside of every window.
+ * Every session plex is currently streaming multiplies the rate by
+ * <code>archive.throttle.session-backoff</code>, down to
+ * <code>archive.throttle.session-min-factor</code>.
+ * <p>
+ * Restores are not throttled, since someone is waiting to play the movie.
+ */
+@Service
+@Slf4j
+public class TransferThrottle {
+
+  private final Map<Direction, TokenBucket> buckets = new EnumMap<>(Direction.class);
+  private final List<Window> parsedWindows = new ArrayList<>();
+  private final ArchiveMetrics archiveMetrics;
+  @Value("${archive.throttle.enabled}")
+  private boolean enabled;
+  @Value("${archive.throttle.read-rate}")
+  private DataSize readRate;
+  @Value("${archive.throttle.write-rate}")
+  private DataSize writeRate;
+  @Value("${archive.throttle.windows}")
+  private List<String> windows;
+  @Value("${archive.throttle.session-backoff}")
+  private double sessionBackoff;
+  @Value("${archive.throttle.session-min-factor}")
+  private double sessionMinFactor;
+  private volatile int activeSessions;
+
+  public TransferThrottle(ArchiveMetrics archiveMetrics) {
+    this.archiveMetrics = archiveMetrics;
+  }
+
+  @PostConstruct
+  void init() {
+    for (Direction direction : Direction.values()) {
+      buckets.put(direction, new TokenBucket());
+    }
+    for (String window : windows) {
+      String[] rangeAndPercent = window.trim().split("=");
+      String[] range = rangeAndPercent[0].split("-");
+      int percent = Integer.parseInt(rangeAndPercent[1].trim());
+      if (percent < 1 || percent > 100) {
+        throw new IllegalStateException(String.format(
+            "archive.throttle.windows entry %s must have a percentage from 1 to 100", window));
+      }
+      parsedWindows.add(new Window(LocalTime.parse(range[0].trim()),
+          LocalTime.parse(range[1].trim()), percent));
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Blocks until the bytes fit into the current rate of the direction.
+   */
+  public void acquire(Direction direction, long bytes) throws InterruptedIOException {
+    if (!enabled || bytes <= 0) {
+      return;
+    }
+    long baseRate = (direction == Direction.READ ? readRate : writeRate).toBytes();
+    TokenBucket bucket = buckets.get(direction);
+    bucket.setRate(baseRate == 0 ? 0
+        : Math.max(1, (long) (baseRate * factor(LocalTime.now(), activeSessions))));
+    try {
+      long waited = bucket.acquire(bytes);
+      if (waited > 0) {
+        archiveMetrics.recordThrottleWait(direction.name().toLowerCase(Locale.ROOT), waited);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for transfer bandwidth.");
+    }
+  }
+
+  public void setActiveSessions(int sessions) {
+    if (sessions != activeSessions) {
+      log.info("Plex reports {} active session(s), archive transfers run at {}% of their rate.",
+          sessions, Math.round(factor(LocalTime.now(), sessions) * 100));
+    }
+    activeSessions = sessions;
+  }
+
+  private double factor(LocalTime time, int sessions) {
+    int percent = parsedWindows.stream().filter(window -> window.contains(time))
+        .mapToInt(Window::percent).findFirst().orElse(100);
+    return percent / 100.0 * Math.max(Math.pow(sessionBackoff, sessions), sessionMinFactor);
+  }
+
+  public enum Direction {
+    /**
+     * Reading the original from the library.
+     */
+    READ,
+    /**
+     * Writing the copy to the archive.
+     */
+    WRITE
+  }
+
+  private record Window(LocalTime start, LocalTime end, int percent) {
+
+    boolean contains(LocalTime time) {
+      return start.isBefore(end)
+          ? !time.isBefore(start) && time.isBefore(end)
+          : !time.isBefore(start) || time.isBefore(end);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs per movie archive workflows, one thread each.
+ * <p>
+ * Threads are virtual when the JVM supports them (Java 21+). On older JVMs a pool of
+ * <code>archive.execution.fallback-threads</code> platform threads is used. Either way, how much
+ * work hits a resource at once is limited by {@link #withPermit}, not by the number of threads:
+ * <code>archive.limits.disk</code>, <code>archive.limits.network</code> and
+ * <code>archive.limits.db</code> permits are handed out per resource.
+ */
+@Service
+@Slf4j
+public class WorkflowExecutor {
+
+  private static final String VIRTUAL_EXECUTOR_FACTORY = "newVirtualThreadPerTaskExecutor";
+  private final Map<Resource, Semaphore> permits = new EnumMap<>(Resource.class);
+  @Value("${archive.limits.disk}")
+  private int diskPermits;
+  @Value("${archive.limits.network}")
+  private int networkPermits;
+  @Value("${archive.limits.db}")
+  private int dbPermits;
+  @Value("${archive.execution.fallback-threads}")
+  private int fallbackThreads;
+  private ExecutorService executor;
+
+  @PostConstruct
+  void init() {
+    permits.put(Resource.DISK, new Semaphore(diskPermits, true));
+    permits.put(Resource.NETWORK, new Semaphore(networkPermits, true));
+    permits.put(Resource.DB, new Semaphore(dbPermits, true));
+  }
+
+  @PreDestroy
+  void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  public <T> CompletableFuture<T> submit(Callable<T> workflow) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Future<?> worker = executor().submit(() -> {
+      try {
+        result.complete(workflow.call());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        result.cancel(false);
+      } catch (Exception e) {
+        result.completeExceptionally(e);
+      }
+    });
+    result.whenComplete((value, throwable) -> {
+      if (result.isCancelled()) {
+        worker.cancel(true);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Runs the step on the calling thread once a permit of the resource is free.
+   */
+  public <T> T withPermit(Resource resource, Callable<T> step) throws Exception {
+    Semaphore semaphore = permits.get(resource);
+    semaphore.acquire();
+    try {
+      return step.call();
+    } finally {
+      semaphore.release();
+    }
+  }
+
+  private synchronized ExecutorService executor() {
+    if (executor == null) {
+      executor = createExecutor();
+    }
+    return executor;
+  }
+
+  /**
+   * Looked up reflectively, the project still compiles for Java 17.
+   */
+  private ExecutorService createExecutor() {
+    try {
+      var factory = Executors.class.getMethod(VIRTUAL_EXECUTOR_FACTORY);
+      log.info("Running archive workflows on virtual threads.");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      log.warn("Virtual threads need Java 21, running archive workflows on {} platform threads.",
+          fallbackThreads);
+      return Executors.newFixedThreadPool(fallbackThreads,
+          new CustomizableThreadFactory("workflow-"));
+    }
+  }
+
+  public enum Resource {
+    DISK,
+    NETWORK,
+    DB
+  }
+}
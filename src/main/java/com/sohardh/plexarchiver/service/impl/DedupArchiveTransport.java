@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.service.impl;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.sohardh.plexarchiver.dto.ArchivedFile;
+import com.sohardh.plexarchiver.service.ArchiveMetrics;
+import com.sohardh.plexarchiver.service.ArchiveTransport;
+import com.sohardh.plexarchiver.service.TransferThrottle;
+import com.sohardh.plexarchiver.service.TransferThrottle.Direction;
+import com.sohardh.plexarchiver.util.ArchivePathUtil;
+import com.sohardh.plexarchiver.util.ContentDefinedChunker;
+import com.sohardh.plexarchiver.util.DigestUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Stores files in a locally mounted archive directory as content-defined chunks, each chunk
+ * stored once under its SHA-256, so editions and parts sharing data only take the space of the
+ * data they do not share.
+ * <p>
+ * A file is cut with {@link ContentDefinedChunker} into chunks of about
+ * <code>archive.dedup.average-chunk-size</code>. Chunks already in <code>chunks/</code> are
+ * skipped, new ones are deflated with <code>archive.dedup.compression-level</code> and kept raw
+ * when that does not make them smaller. Hashing, compressing and writing run on
+ * <code>archive.dedup.threads</code> threads while the next chunks are read. The backup file of an
+ * archived file is its manifest in <code>manifests/</code>, stored at the original's path
+ * relative to <code>movies.path</code> and listing the hashes and lengths of its chunks in order.
+ * With <code>archive.local.fsync</code> the chunks, the manifest and the directories holding them
+ * are flushed to disk before the archive returns, so the original is only replaced once its
+ * backup survives a crash. The {@link TransferThrottle} is charged for the bytes read from the
+ * original and for the bytes of the chunks actually written.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "archive.transport", havingValue = "dedup")
+public class DedupArchiveTransport implements ArchiveTransport {
+
+  private static final String LOCAL_HOST = "localhost";
+  private static final String CHUNK_ALGORITHM = "SHA-256";
+  private static final String MANIFEST_HEADER = "plex-archiver manifest 1";
+  private static final String MANIFEST_SUFFIX = ".manifest";
+  private static final String PARTIAL_SUFFIX = ".part";
+  private static final int RAW = 0;
+  private static final int DEFLATED = 1;
+  private final ArchiveMetrics archiveMetrics;
+  private final TransferThrottle transferThrottle;
+  @Value("${movies.path}")
+  private String moviesFilePath;
+  @Value("${archive.path}")
+  private String archiveFilePath;
+  @Value("${archive.local.fsync}")
+  private boolean fsync;
+  @Value("${archive.dedup.average-chunk-size}")
+  private DataSize averageChunkSize;
+  @Value("${archive.dedup.compression-level}")
+  private int compressionLevel;
+  @Value("${archive.dedup.threads}")
+  private int threads;
+  @Value("${archive.verify.enabled}")
+  private boolean verify;
+  @Value("${archive.verify.algorithm}")
+  private String checksumAlgorithm;
+  private ExecutorService chunkExecutor;
+  private Semaphore chunksInFlight;
+
+  public DedupArchiveTransport(ArchiveMetrics archiveMetrics,
+      TransferThrottle transferThrottle) {
+    this.archiveMetrics = archiveMetrics;
+    this.transferThrottle = transferThrottle;
+  }
+
+  @PostConstruct
+  void init() {
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    chunkExecutor = Executors.newFixedThreadPool(poolSize, new CustomizableThreadFactory("chunk-"));
+    chunksInFlight = new Semaphore(poolSize * 2);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    chunkExecutor.shutdownNow();
+  }
+
+  @Override
+  public String host() {
+    return LOCAL_HOST;
+  }
+
+  @Override
+  public ArchivedFile archive(String movieFilePath) throws Exception {
+    Path source = Path.of(movieFilePath);
+    Path chunkDirectory = Files.createDirectories(Path.of(archiveFilePath, "chunks"));
+    Path manifestFile = Path.of(archiveFilePath, "manifests").resolve(
+        ArchivePathUtil.relativeBackupPath(moviesFilePath, movieFilePath) + MANIFEST_SUFFIX);
+    Files.createDirectories(manifestFile.getParent());
+    Set<Path> writtenDirectories = ConcurrentHashMap.newKeySet();
+    MessageDigest digest = verify ? DigestUtil.newDigest(checksumAlgorithm) : null;
+
+    List<Future<String>> hashes = new ArrayList<>();
+    List<Integer> lengths = new ArrayList<>();
+    long size = 0;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(source))) {
+      var chunker = new ContentDefinedChunker(in, (int) averageChunkSize.toBytes());
+      for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+        transferThrottle.acquire(Direction.READ, chunk.length);
+        if (digest != null) {
+          digest.update(chunk);
+        }
+        size += chunk.length;
+        lengths.add(chunk.length);
+        chunksInFlight.acquire();
+        byte[] content = chunk;
+        hashes.add(chunkExecutor.submit(() -> {
+          try {
+            return store(chunkDirectory, content, writtenDirectories);
+          } finally {
+            chunksInFlight.release();
+          }
+        }));
+      }
+    } catch (Exception e) {
+      hashes.forEach(hash -> hash.cancel(true));
+      throw e;
+    }
+
+    var manifest = new StringBuilder(MANIFEST_HEADER).append('\n');
+    for (int i = 0; i < hashes.size(); i++) {
+      try {
+        manifest.append(hashes.get(i).get()).append(' ').append(lengths.get(i)).append('\n');
+      } catch (ExecutionException e) {
+        hashes.forEach(hash -> hash.cancel(true));
+        throw e.getCause() instanceof Exception cause ? cause : e;
+      }
+    }
+    for (Path directory : writtenDirectories) {
+      forceDirectory(directory);
+    }
+    Path partial = manifestFile.resolveSibling(manifestFile.getFileName() + PARTIAL_SUFFIX);
+    Files.deleteIfExists(partial);
+    write(partial, manifest.toString().getBytes(StandardCharsets.UTF_8));
+    Files.move(partial, manifestFile, ATOMIC_MOVE, REPLACE_EXISTING);
+    forceDirectory(manifestFile.getParent());
+    return new ArchivedFile(manifestFile.toString(), size,
+        digest == null ? null : DigestUtil.toHex(digest));
+  }
+
+  @Override
+  public String checksum(String backupFile) throws IOException {
+    MessageDigest digest = DigestUtil.newDigest(checksumAlgorithm);
+    readChunks(Path.of(backupFile), digest::update);
+    return DigestUtil.toHex(digest);
+  }
+
+  @Override
+  public void restore(String backupFile, String originalFilePath, String expectedChecksum)
+      throws IOException {
+    Path original = Path.of(originalFilePath);
+    Path partial = original.resolveSibling(original.getFileName() + PARTIAL_SUFFIX);
+    MessageDigest digest = expectedChecksum == null ? null
+        : DigestUtil.newDigest(checksumAlgorithm);
+    try (OutputStream out = Files.newOutputStream(partial)) {
+      readChunks(Path.of(backupFile), chunk -> {
+        if (digest != null) {
+          digest.update(chunk);
+        }
+        out.write(chunk);
+      });
+    }
+    if (digest != null && !expectedChecksum.equalsIgnoreCase(DigestUtil.toHex(digest))) {
+      Files.deleteIfExists(partial);
+      throw new IOException(String.format("Checksum mismatch while restoring %s: expected %s, "
+          + "got %s", backupFile, expectedChecksum, DigestUtil.toHex(digest)));
+    }
+    Files.move(partial, original, ATOMIC_MOVE, REPLACE_EXISTING);
+  }
+
+  /**
+   * Writes the chunk unless the store already holds it, and returns its hash. The directory of a
+   * written chunk is added to <code>writtenDirectories</code>, to be flushed once all chunks of
+   * the file are stored.
+   */
+  private String store(Path chunkDirectory, byte[] chunk, Set<Path> writtenDirectories)
+      throws IOException {
+    String hash = HexFormat.of().formatHex(DigestUtil.newDigest(CHUNK_ALGORITHM).digest(chunk));
+    Path chunkFile = chunkFile(chunkDirectory, hash);
+    if (Files.exists(chunkFile)) {
+      archiveMetrics.recordChunk(true, chunk.length);
+      return hash;
+    }
+    var compressed = new ByteArrayOutputStream(chunk.length / 2);
+    var deflater = new Deflater(compressionLevel);
+    try (var out = new DeflaterOutputStream(compressed, deflater)) {
+      out.write(chunk);
+    } finally {
+      deflater.end();
+    }
+    boolean deflated = compressed.size() < chunk.length;
+    transferThrottle.acquire(Direction.WRITE, deflated ? compressed.size() : chunk.length);
+    Files.createDirectories(chunkFile.getParent());
+    Path partial = chunkFile.resolveSibling(hash + "." + UUID.randomUUID() + PARTIAL_SUFFIX);
+    var content = new ByteArrayOutputStream((deflated ? compressed.size() : chunk.length) + 1);
+    content.write(deflated ? DEFLATED : RAW);
+    if (deflated) {
+      compressed.writeTo(content);
+    } else {
+      content.write(chunk);
+    }
+    write(partial, content.toByteArray());
+    Files.move(partial, chunkFile, ATOMIC_MOVE, REPLACE_EXISTING);
+    writtenDirectories.add(chunkFile.getParent());
+    archiveMetrics.recordChunk(false, chunk.length);
+    return hash;
+  }
+
+  /**
+   * Writes a new file, flushing it to disk with <code>archive.local.fsync</code>.
+   */
+  private void write(Path file, byte[] content) throws IOException {
+    try (FileChannel out = FileChannel.open(file, CREATE_NEW, WRITE)) {
+      ByteBuffer buffer = ByteBuffer.wrap(content);
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      if (fsync) {
+        out.force(true);
+      }
+    }
+  }
+
+  /**
+   * Flushes the entries of the directory, so files renamed into it survive a crash.
+   */
+  private void forceDirectory(Path directory) throws IOException {
+    if (fsync) {
+      try (FileChannel channel = FileChannel.open(directory, READ)) {
+        channel.force(true);
+      }
+    }
+  }
+
+  private void readChunks(Path manifestFile, ChunkConsumer consumer) throws IOException {
+    List<String> lines = Files.readAllLines(manifestFile, StandardCharsets.UTF_8);
+    if (lines.isEmpty() || !lines.get(0).equals(MANIFEST_HEADER)) {
+      throw new IOException(manifestFile + " is not a chunk manifest.");
+    }
+    Path chunkDirectory = Path.of(archiveFilePath, "chunks");
+    for (String line : lines.subList(1, lines.size())) {
+      String[] entry = line.split(" ");
+      int length = Integer.parseInt(entry[1]);
+      try (InputStream in = new BufferedInputStream(
+          Files.newInputStream(chunkFile(chunkDirectory, entry[0])))) {
+        int format = in.read();
+        byte[] chunk = (format == DEFLATED ? new InflaterInputStream(in) : in).readAllBytes();
+        if (chunk.length != length) {
+          throw new IOException(String.format("Chunk %s of %s has %d bytes instead of %d.",
+              entry[0], manifestFile, chunk.length, length));
+        }
+        consumer.accept(chunk);
+      }
+    }
+  }
+
+  private static Path chunkFile(Path chunkDirectory, String hash) {
+    return chunkDirectory.resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  @FunctionalInterface
+  private interface ChunkConsumer {
+
+    void accept(byte[] chunk) throws IOException;
+  }
+}
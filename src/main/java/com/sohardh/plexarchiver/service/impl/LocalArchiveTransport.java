@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service.impl;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.sohardh.plexarchiver.dao.model.ChunkState;
+import com.sohardh.plexarchiver.dao.model.TransferChunkModel;
+import com.sohardh.plexarchiver.dao.repository.TransferChunkRepository;
+import com.sohardh.plexarchiver.dto.ArchivedFile;
+import com.sohardh.plexarchiver.service.ArchiveTransport;
+import com.sohardh.plexarchiver.service.TransferThrottle;
+import com.sohardh.plexarchiver.service.TransferThrottle.Direction;
+import com.sohardh.plexarchiver.util.ArchivePathUtil;
+import com.sohardh.plexarchiver.util.DigestUtil;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Copies files to an archive directory that is mounted locally, e.g. a second disk or an NFS
+ * share, without forking a process per file.
+ * <p>
+ * The copy goes through {@link FileChannel#transferTo}, which lets the kernel move the data
+ * without copying it into the JVM. When the channels do not support that, it falls back to a
+ * direct buffer of <code>archive.local.buffer-size</code>. Files are written under a temporary
+ * name and renamed once complete, so the archive never holds a partial file under its final name.
+ * The backup keeps the path of the original relative to <code>movies.path</code>, so movies with
+ * the same file name in different folders never share a backup or a partial file.
+ * <p>
+ * With <code>archive.local.resumable</code> the file is copied in chunks of
+ * <code>archive.local.chunk-size</code> through the direct buffer instead, and every chunk is
+ * recorded in the <code>pa.transfer_chunk</code> journal with its CRC32C once it is on disk. When
+ * a copy is interrupted, the next attempt skips the chunks the journal reports as done, as long as
+ * the source file has not changed in the meantime. Every skipped chunk is read back from the
+ * partial file and checked against its CRC32C first. From the first chunk that does not match,
+ * the copy starts over.
+ * <p>
+ * With <code>archive.verify.enabled</code> the content digest is computed from the same buffer the
+ * copy goes through, so the source is read only once. This also rules out
+ * {@link FileChannel#transferTo}, since the bytes have to pass through the JVM to be hashed. A
+ * resumed copy reads the chunks it skips once more to complete the digest.
+ * <p>
+ * Archive copies go through the {@link TransferThrottle}. While it is enabled,
+ * {@link FileChannel#transferTo} moves at most one buffer at a time so it can be throttled too.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "archive.transport", havingValue = "local")
+public class LocalArchiveTransport implements ArchiveTransport {
+
+  private static final String LOCAL_HOST = "localhost";
+  private static final String PARTIAL_SUFFIX = ".part";
+  private final TransferChunkRepository transferChunkRepository;
+  private final TransferThrottle transferThrottle;
+  @Value("${movies.path}")
+  private String moviesFilePath;
+  @Value("${archive.path}")
+  private String archiveFilePath;
+  @Value("${archive.local.buffer-size}")
+  private DataSize bufferSize;
+  @Value("${archive.local.fsync}")
+  private boolean fsync;
+  @Value("${archive.local.preallocate}")
+  private boolean preallocate;
+  @Value("${archive.local.resumable}")
+  private boolean resumable;
+  @Value("${archive.local.chunk-size}")
+  private DataSize chunkSize;
+  @Value("${archive.verify.enabled}")
+  private boolean verify;
+  @Value("${archive.verify.algorithm}")
+  private String checksumAlgorithm;
+
+  public LocalArchiveTransport(TransferChunkRepository transferChunkRepository,
+      TransferThrottle transferThrottle) {
+    this.transferChunkRepository = transferChunkRepository;
+    this.transferThrottle = transferThrottle;
+  }
+
+  @Override
+  public String host() {
+    return LOCAL_HOST;
+  }
+
+  @Override
+  public ArchivedFile archive(String movieFilePath) throws IOException {
+    Path source = Path.of(movieFilePath);
+    Path destination = Path.of(archiveFilePath)
+        .resolve(ArchivePathUtil.relativeBackupPath(moviesFilePath, movieFilePath));
+    Files.createDirectories(destination.getParent());
+    Path partial = destination.resolveSibling(destination.getFileName() + PARTIAL_SUFFIX);
+    MessageDigest digest = verify ? DigestUtil.newDigest(checksumAlgorithm) : null;
+
+    long size = resumable
+        ? copyChunks(source, partial, destination, digest)
+        : copy(source, partial, digest, true);
+    Files.move(partial, destination, ATOMIC_MOVE, REPLACE_EXISTING);
+    if (resumable) {
+      transferChunkRepository.deleteBySourceFile(movieFilePath);
+    }
+    return new ArchivedFile(destination.toString(), size,
+        digest == null ? null : DigestUtil.toHex(digest));
+  }
+
+  @Override
+  public String checksum(String backupFile) throws IOException {
+    return DigestUtil.digest(Path.of(backupFile), checksumAlgorithm,
+        ByteBuffer.allocateDirect((int) bufferSize.toBytes()));
+  }
+
+  @Override
+  public void restore(String backupFile, String originalFilePath, String expectedChecksum)
+      throws IOException {
+    Path original = Path.of(originalFilePath);
+    Path partial = original.resolveSibling(original.getFileName() + PARTIAL_SUFFIX);
+    MessageDigest digest = expectedChecksum == null ? null
+        : DigestUtil.newDigest(checksumAlgorithm);
+    copy(Path.of(backupFile), partial, digest, false);
+    if (digest != null && !expectedChecksum.equalsIgnoreCase(DigestUtil.toHex(digest))) {
+      Files.deleteIfExists(partial);
+      throw new IOException(String.format("Checksum mismatch while restoring %s: expected %s, "
+          + "got %s", backupFile, expectedChecksum, DigestUtil.toHex(digest)));
+    }
+    Files.move(partial, original, ATOMIC_MOVE, REPLACE_EXISTING);
+  }
+
+  private long copy(Path source, Path partial, MessageDigest digest, boolean throttled)
+      throws IOException {
+    try (FileChannel in = FileChannel.open(source, READ);
+        FileChannel out = FileChannel.open(partial, CREATE, WRITE, TRUNCATE_EXISTING)) {
+      long size = in.size();
+      if (preallocate && size > 0) {
+        out.write(ByteBuffer.allocate(1), size - 1);
+      }
+      long position = 0;
+      long step = throttled && transferThrottle.isEnabled() ? bufferSize.toBytes() : size;
+      while (digest == null && position < size) {
+        long transferred = in.transferTo(position, Math.min(step, size - position), out);
+        if (transferred <= 0) {
+          break;
+        }
+        if (throttled) {
+          transferThrottle.acquire(Direction.READ, transferred);
+          transferThrottle.acquire(Direction.WRITE, transferred);
+        }
+        position += transferred;
+      }
+      if (position < size) {
+        copyBuffered(in, out, position, size - position,
+            ByteBuffer.allocateDirect((int) bufferSize.toBytes()), digestOrSkip(digest),
+            throttled);
+      }
+      if (fsync) {
+        out.force(true);
+      }
+      return size;
+    }
+  }
+
+  private long copyChunks(Path source, Path partial, Path destination, MessageDigest digest)
+      throws IOException {
+    String sourceFile = source.toString();
+    long size = Files.size(source);
+    long modifiedAt = Files.getLastModifiedTime(source).toMillis();
+    List<TransferChunkModel> chunks = transferChunkRepository
+        .findBySourceFileOrderByChunkIndex(sourceFile);
+    boolean resuming = !chunks.isEmpty() && Files.exists(partial)
+        && chunks.stream().allMatch(chunk -> chunk.getSourceSize() == size
+        && chunk.getSourceModifiedAt() == modifiedAt
+        && chunk.getDestinationFile().equals(destination.toString()));
+    if (!resuming) {
+      transferChunkRepository.deleteBySourceFile(sourceFile);
+      chunks = transferChunkRepository.saveAll(
+          planChunks(sourceFile, destination.toString(), size, modifiedAt));
+    } else {
+      log.info("Resuming the copy of {} from the transfer journal.", sourceFile);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect((int) bufferSize.toBytes());
+    Consumer<ByteBuffer> digestSink = digestOrSkip(digest);
+    try (FileChannel in = FileChannel.open(source, READ);
+        FileChannel out = resuming ? FileChannel.open(partial, READ, WRITE)
+            : FileChannel.open(partial, CREATE, WRITE, TRUNCATE_EXISTING)) {
+      if (!resuming && preallocate && size > 0) {
+        out.write(ByteBuffer.allocate(1), size - 1);
+      }
+      boolean intact = true;
+      for (TransferChunkModel chunk : chunks) {
+        if (chunk.getState() == ChunkState.DONE && intact) {
+          intact = isIntact(out, chunk, buffer);
+          if (intact) {
+            if (digest != null) {
+              copyBuffered(in, null, chunk.getChunkOffset(), chunk.getChunkLength(), buffer,
+                  digestSink, true);
+            }
+            continue;
+          }
+          log.warn("Chunk {} of {} does not match the transfer journal, copying it again with "
+              + "all chunks after it.", chunk.getChunkIndex(), sourceFile);
+        }
+        CRC32C crc = new CRC32C();
+        copyBuffered(in, out, chunk.getChunkOffset(), chunk.getChunkLength(), buffer,
+            bytes -> {
+              crc.update(bytes.duplicate());
+              digestSink.accept(bytes);
+            }, true);
+        out.force(false);
+        chunk.setChecksum(Long.toHexString(crc.getValue()));
+        chunk.setState(ChunkState.DONE);
+        transferChunkRepository.save(chunk);
+      }
+      if (fsync) {
+        out.force(true);
+      }
+    }
+    return size;
+  }
+
+  private List<TransferChunkModel> planChunks(String sourceFile, String destinationFile,
+      long size, long modifiedAt) {
+    List<TransferChunkModel> chunks = new ArrayList<>();
+    long length = chunkSize.toBytes();
+    for (long offset = 0, index = 0; offset < size || index == 0; offset += length, index++) {
+      var chunk = new TransferChunkModel();
+      chunk.setSourceFile(sourceFile);
+      chunk.setDestinationFile(destinationFile);
+      chunk.setSourceSize(size);
+      chunk.setSourceModifiedAt(modifiedAt);
+      chunk.setChunkIndex((int) index);
+      chunk.setChunkOffset(offset);
+      chunk.setChunkLength(Math.min(length, size - offset));
+      chunk.setState(ChunkState.PENDING);
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  private static Consumer<ByteBuffer> digestOrSkip(MessageDigest digest) {
+    if (digest == null) {
+      return bytes -> {
+      };
+    }
+    return bytes -> digest.update(bytes.duplicate());
+  }
+
+  /**
+   * Whether a chunk the journal reports as done is still in the partial file with the CRC32C it
+   * was recorded with.
+   */
+  private boolean isIntact(FileChannel partial, TransferChunkModel chunk, ByteBuffer buffer)
+      throws IOException {
+    if (chunk.getChecksum() == null
+        || partial.size() < chunk.getChunkOffset() + chunk.getChunkLength()) {
+      return false;
+    }
+    CRC32C crc = new CRC32C();
+    copyBuffered(partial, null, chunk.getChunkOffset(), chunk.getChunkLength(), buffer,
+        bytes -> crc.update(bytes.duplicate()), false);
+    return Long.toHexString(crc.getValue()).equals(chunk.getChecksum());
+  }
+
+  /**
+   * Copies the range through the buffer and hands every block read to the sink before it is
+   * written. Only reads when <code>out</code> is null.
+   */
+  private void copyBuffered(FileChannel in, FileChannel out, long offset, long length,
+      ByteBuffer buffer, Consumer<ByteBuffer> sink, boolean throttled) throws IOException {
+    long position = offset;
+    long end = offset + length;
+    while (position < end) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      int read = in.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("Source file shrank while it was being archived.");
+      }
+      buffer.flip();
+      sink.accept(buffer);
+      if (throttled) {
+        transferThrottle.acquire(Direction.READ, read);
+      }
+      if (out == null) {
+        position += read;
+        continue;
+      }
+      if (throttled) {
+        transferThrottle.acquire(Direction.WRITE, read);
+      }
+      while (buffer.hasRemaining()) {
+        position += out.write(buffer, position);
+      }
+    }
+  }
+}
@@ -21,200 +21,834 @@ package com.sohardh.plexarchiver.service.impl;
 
 import static com.sohardh.plexarchiver.util.PlexDataParserUtil.parsePlexResponse;
 
+import com.sohardh.plexarchiver.dao.model.ArchiveState;
 import com.sohardh.plexarchiver.dao.model.MovieFileModel;
 import com.sohardh.plexarchiver.dao.model.MovieModel;
 import com.sohardh.plexarchiver.dao.repository.MovieFileRepository;
 import com.sohardh.plexarchiver.dao.repository.MovieRepository;
+import com.sohardh.plexarchiver.dto.ArchivePlan;
+import com.sohardh.plexarchiver.dto.ArchiveRunSummary;
+import com.sohardh.plexarchiver.dto.ArchivedFile;
+import com.sohardh.plexarchiver.dto.CandidateDiscovery;
 import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.PlannedMovie;
+import com.sohardh.plexarchiver.dto.PolicyCandidate;
+import com.sohardh.plexarchiver.service.ArchiveCostEstimator;
+import com.sohardh.plexarchiver.service.ArchiveMetrics;
+import com.sohardh.plexarchiver.service.ArchivePlanCache;
+import com.sohardh.plexarchiver.service.ArchivePolicyEngine;
+import com.sohardh.plexarchiver.service.ArchiveTransport;
+import com.sohardh.plexarchiver.service.CandidateDiscoveryService;
+import com.sohardh.plexarchiver.service.ClusterWorkService;
+import com.sohardh.plexarchiver.service.FileMetadataCache;
+import com.sohardh.plexarchiver.service.JobRunService;
 import com.sohardh.plexarchiver.service.MovieArchiveService;
 import com.sohardh.plexarchiver.service.PlexFetchDataService;
+import com.sohardh.plexarchiver.service.SampleReplacer;
+import com.sohardh.plexarchiver.service.TransferEngine;
+import com.sohardh.plexarchiver.service.WorkflowExecutor;
+import com.sohardh.plexarchiver.service.WorkflowExecutor.Resource;
+import com.sohardh.plexarchiver.util.CandidateIndex;
+import com.sohardh.plexarchiver.util.ExecutionMode;
+import com.sohardh.plexarchiver.util.ParserMode;
+import io.micrometer.core.instrument.Timer;
 import java.io.File;
 import java.io.IOException;
-import java.text.MessageFormat;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
 @Slf4j
 @Service
 public class MovieArchiveServiceImpl implements MovieArchiveService {
 
-  private static final long COPY_WAIT_TIME = 15 * 60 * 1000;
+  private static final String LOCAL_HOST = "localhost";
+  private static final int STREAM_PREFETCH_BATCHES = 2;
+  private static final Set<ArchiveState> UNFINISHED_STATES = Set.of(ArchiveState.PENDING,
+      ArchiveState.COPYING, ArchiveState.VERIFIED, ArchiveState.SWAPPED);
   private final PlexFetchDataService plexFetchDataService;
+  private final CandidateDiscoveryService candidateDiscoveryService;
   private final MovieRepository movieRepository;
   private final MovieFileRepository movieFileRepository;
-  @Value("${archive.path}")
-  private String archiveFilePath;
-  @Value("${archive.host.name}")
-  private String archiveHostName;
-  @Value("${archive.host.user}")
-  private String archiveHostUser;
-  @Value("${ssh.file.path}")
-  private String sshKeyFilePath;
+  private final TransferEngine transferEngine;
+  private final ArchiveTransport archiveTransport;
+  private final ArchiveMetrics archiveMetrics;
+  private final WorkflowExecutor workflowExecutor;
+  private final SampleReplacer sampleReplacer;
+  private final ArchivePolicyEngine archivePolicyEngine;
+  private final FileMetadataCache fileMetadataCache;
+  private final ClusterWorkService clusterWorkService;
+  private final ArchivePlanCache archivePlanCache;
+  private final ArchiveCostEstimator archiveCostEstimator;
+  private final JobRunService jobRunService;
+  private final Fence leaseFence;
   @Value("${sample.file.path}")
   private String sampleFilepath; // /mnt/user/sample
+  @Value("${plex.parser.mode}")
+  private ParserMode parserMode;
+  @Value("${archive.batch.size}")
+  private int archiveBatchSize;
+  @Value("${archive.verify.enabled}")
+  private boolean verifyBackups;
+  @Value("${archive.execution.mode}")
+  private ExecutionMode executionMode;
+  @Value("${archive.plan.min-reclaim}")
+  private DataSize minReclaim;
 
   public MovieArchiveServiceImpl(PlexFetchDataService plexFetchDataService,
-      MovieRepository movieRepository, MovieFileRepository movieFileRepository) {
+      CandidateDiscoveryService candidateDiscoveryService, MovieRepository movieRepository,
+      MovieFileRepository movieFileRepository, TransferEngine transferEngine,
+      ArchiveTransport archiveTransport, ArchiveMetrics archiveMetrics,
+      WorkflowExecutor workflowExecutor, SampleReplacer sampleReplacer,
+      ArchivePolicyEngine archivePolicyEngine, FileMetadataCache fileMetadataCache,
+      ClusterWorkService clusterWorkService, ArchivePlanCache archivePlanCache,
+      ArchiveCostEstimator archiveCostEstimator, JobRunService jobRunService) {
     this.plexFetchDataService = plexFetchDataService;
+    this.candidateDiscoveryService = candidateDiscoveryService;
     this.movieRepository = movieRepository;
     this.movieFileRepository = movieFileRepository;
+    this.transferEngine = transferEngine;
+    this.archiveTransport = archiveTransport;
+    this.archiveMetrics = archiveMetrics;
+    this.workflowExecutor = workflowExecutor;
+    this.sampleReplacer = sampleReplacer;
+    this.archivePolicyEngine = archivePolicyEngine;
+    this.fileMetadataCache = fileMetadataCache;
+    this.clusterWorkService = clusterWorkService;
+    this.archivePlanCache = archivePlanCache;
+    this.archiveCostEstimator = archiveCostEstimator;
+    this.jobRunService = jobRunService;
+    this.leaseFence = guid -> jobRunService.checkLease(JOB_NAME);
+  }
+
+  /**
+   * Carries out the cached plan when its inputs are unchanged. With
+   * <code>archive.plan.min-reclaim</code> above 0 every run is planned first, so it can be skipped
+   * when it would not free enough space. Otherwise candidates are archived while plex is still
+   * sending them.
+   */
+  @Override
+  public ArchiveRunSummary archiveMovies() {
+    var run = new ArchiveRun(archivePolicyEngine.start(), false);
+    recoverUnfinished(run.summary);
+    CandidateDiscovery discovery;
+    try {
+      discovery = candidateDiscoveryService.discover();
+    } catch (Exception e) {
+      log.error("Error while discovering candidates from plex.", e);
+      archiveMetrics.recordFailure("discovery", e);
+      return run.summary;
+    }
+    if (minReclaim.toBytes() > 0) {
+      return plan(discovery).map(plan -> archivePlannedMovies(plan, run)).orElse(run.summary);
+    }
+    Optional<ArchivePlanCache.Entry> cachedPlan = archivePlanCache.get(
+        ArchivePlanCache.fingerprint(discovery, movieRepository.count()));
+    if (cachedPlan.isPresent()) {
+      log.info("Carrying out the plan of {}.", cachedPlan.get().plan().getPlannedAt());
+      return archivePlannedMovies(cachedPlan.get(), run);
+    }
+    boolean completed = parserMode == ParserMode.STAX
+        ? archiveStreamedCandidates(discovery, run)
+        : archiveBufferedCandidates(discovery, run);
+    if (run.selection.isCapacityBound()) {
+      completed &= archiveDeferredCandidates(run);
+    }
+    if (completed && isOwned(JOB_NAME, leaseFence)) {
+      candidateDiscoveryService.commit(discovery, run.oldestLeftBehind());
+      fileMetadataCache.evictUnseen();
+      run.summary.markCompleted();
+    }
+    return run.summary;
   }
-  /*
-   * scp -i {ssh key} {sourceFilePath} {hostUser}:{hostname}:{destinationFilePath}
-   * */
 
   @Override
-  public void archiveMovies() {
-    Optional<String> moviesWatchedMoreThanOneYearAgo = plexFetchDataService.getMoviesWatchedMoreThanOneYearAgo();
-    if (moviesWatchedMoreThanOneYearAgo.isEmpty()) {
+  public ArchivePlan planArchive() {
+    return plan(candidateDiscoveryService.discover()).map(ArchivePlanCache.Entry::plan)
+        .orElseThrow(() -> new IllegalStateException("Could not fetch the candidates from plex."));
+  }
+
+  /**
+   * Returns the cached plan when its inputs are unchanged, otherwise collects and selects all
+   * candidates of the discovery like a capacity bound run does, without archiving any of them.
+   *
+   * @return the plan, or empty when the candidates could not be fetched
+   */
+  private Optional<ArchivePlanCache.Entry> plan(CandidateDiscovery discovery) {
+    String fingerprint = ArchivePlanCache.fingerprint(discovery, movieRepository.count());
+    Optional<ArchivePlanCache.Entry> cachedPlan = archivePlanCache.get(fingerprint);
+    if (cachedPlan.isPresent()) {
+      return cachedPlan;
+    }
+    var run = new ArchiveRun(archivePolicyEngine.start(), true);
+    boolean completed = parserMode == ParserMode.STAX
+        ? archiveStreamedCandidates(discovery, run)
+        : archiveBufferedCandidates(discovery, run);
+    if (!completed) {
+      return Optional.empty();
+    }
+    List<PolicyCandidate> selected = run.selection.selectCandidates(run.deferred);
+    run.leaveBehindUnselected(run.deferred, selected.stream()
+        .map(candidate -> candidate.getMovie().getGuid()).toList());
+    long totalBytes = selected.stream().mapToLong(PolicyCandidate::getSize).sum();
+    double throughput = archiveCostEstimator.throughput();
+    var plan = new ArchivePlan(Instant.now(), run.summary.getCandidates(),
+        selected.stream().map(candidate -> new PlannedMovie(candidate.getMovie().getGuid(),
+            candidate.getMovie().getTitle(), candidate.getMovie().getFiles(), candidate.getSize(),
+            candidate.getVolume())).toList(),
+        totalBytes,
+        selected.stream().collect(Collectors.groupingBy(PolicyCandidate::getVolume,
+            TreeMap::new, Collectors.summingLong(PolicyCandidate::getSize))),
+        throughput, archiveCostEstimator.estimate(totalBytes, throughput));
+    log.info("Planned {} of {} candidates, {} bytes in {}.", plan.getMovies().size(),
+        plan.getCandidates(), totalBytes, plan.getEstimatedDuration() == null
+            ? "an unknown time" : plan.getEstimatedDuration());
+    return Optional.of(archivePlanCache.put(fingerprint, discovery,
+        selected.stream().map(PolicyCandidate::getMovie).toList(), run.oldestLeftBehind(),
+        plan));
+  }
+
+  /**
+   * Archives the movies of a plan, unless it would reclaim less than
+   * <code>archive.plan.min-reclaim</code>. A skipped plan does not store the checkpoints of its
+   * discovery, so the next run sees its candidates again.
+   */
+  private ArchiveRunSummary archivePlannedMovies(ArchivePlanCache.Entry entry, ArchiveRun run) {
+    ArchivePlan plan = entry.plan();
+    run.summary.addCandidates(plan.getCandidates());
+    if (plan.getTotalBytes() < minReclaim.toBytes()) {
+      log.info("Skipping the run, it would only reclaim {} of the required {} bytes.",
+          plan.getTotalBytes(), minReclaim.toBytes());
+      run.summary.markCompleted();
+      return run.summary;
+    }
+    archivePlanCache.invalidate(entry);
+    entry.oldestLeftBehind().ifPresent(run::leaveBehind);
+    List<Movie> movies = entry.movies();
+    try {
+      for (int from = 0; from < movies.size(); from += archiveBatchSize) {
+        var index = new CandidateIndex(movies.subList(from,
+            Math.min(from + archiveBatchSize, movies.size())));
+        archiveNewMovies(index.diff(movieRepository.findExistingGuids(index.guids()))
+            .getNewMovies(), run);
+      }
+    } catch (Exception e) {
+      log.error("Error while archiving the planned movies.", e);
+      archiveMetrics.recordFailure("archive", e);
+      return run.summary;
+    }
+    if (!isOwned(JOB_NAME, leaseFence)) {
+      return run.summary;
+    }
+    candidateDiscoveryService.commit(entry.discovery(), run.oldestLeftBehind());
+    fileMetadataCache.evictUnseen();
+    run.summary.markCompleted();
+    return run.summary;
+  }
+
+  private boolean archiveBufferedCandidates(CandidateDiscovery discovery,
+      ArchiveRun run) {
+    Optional<List<String>> candidatePages = plexFetchDataService.getCandidatePages(
+        discovery.getFiltersBySection());
+    if (candidatePages.isEmpty()) {
+      return false;
+    }
+    if (candidatePages.get().isEmpty()) {
       log.info("No candidates to archive found. Skipping archive process.");
-      return;
+      return true;
     }
-    List<Movie> candidates;
     try {
-      candidates = parsePlexResponse(moviesWatchedMoreThanOneYearAgo.get(), log);
-
-      var guids = candidates.stream().map(Movie::getGuid)
-          .collect(Collectors.toSet());
-
-      var newMovies = new HashSet<Movie>();
-      movieRepository.findAllById(guids)
-          .forEach(movieModel -> {
-            if (guids.contains(movieModel.getGuid())) {
-              return;
-            }
-            Optional<Movie> newMovieOptional = candidates.stream()
-                .filter(movie -> movie.getGuid().equals(movieModel.getGuid())).findFirst();
-            newMovieOptional.ifPresent(newMovies::add);
-          });
-
-      var newMovieModels = newMovies.stream().map(movie -> {
-        var movieModel = new MovieModel();
-        movieModel.setGuid(movie.getGuid());
-        movieModel.setThumb(movie.getThumb());
-        movieModel.setLastViewedAt(movie.getLastViewedAt());
-        movieModel.setTitle(movie.getTitle());
-        movieModel.setAddedAt(movie.getAddedAt());
-        movieModel.setViewCount(movie.getViewCount());
-        movieModel.setOriginallyAvailableAt(movie.getOriginallyAvailableAt());
-        return movieModel;
-      }).collect(Collectors.toSet());
-
-      movieRepository.saveAll(newMovieModels);
-      saveMovieFiles(newMovies, newMovieModels);
+      for (String response : candidatePages.get()) {
+        Timer.Sample sample = archiveMetrics.start();
+        List<Movie> candidates = parsePlexResponse(response, log, parserMode);
+        archiveMetrics.recordParse(sample, parserMode.name(), candidates.size());
+        archiveCandidates(candidates, run);
+      }
+      return true;
     } catch (Exception e) {
       log.error("Error while parsing plex response.", e);
+      archiveMetrics.recordFailure("parse", e);
+      return false;
+    }
+  }
+
+  /**
+   * Archives candidates batch by batch while plex is still streaming the rest of them. The
+   * iterable only requests the next batch once the previous one has been archived, which keeps
+   * the reactive pipeline from reading further than needed.
+   */
+  private boolean archiveStreamedCandidates(CandidateDiscovery discovery,
+      ArchiveRun run) {
+    int candidateCount = 0;
+    try {
+      for (List<Movie> candidates : plexFetchDataService.streamCandidates(
+              discovery.getFiltersBySection())
+          .buffer(archiveBatchSize).toIterable(STREAM_PREFETCH_BATCHES)) {
+        candidateCount += candidates.size();
+        archiveMetrics.recordParsedItems(parserMode.name(), candidates.size());
+        archiveCandidates(candidates, run);
+      }
+    } catch (Exception e) {
+      log.error("Error while streaming plex response.", e);
+      archiveMetrics.recordFailure("fetch", e);
+      return false;
+    }
+    if (candidateCount == 0) {
+      log.info("No candidates to archive found. Skipping archive process.");
     }
+    return true;
+  }
+
+  /**
+   * Archives the candidates of a run once all of them are known, so the policy can choose the
+   * best of all candidates against its free space target.
+   */
+  private boolean archiveDeferredCandidates(ArchiveRun run) {
+    List<Movie> selected = select(run.deferred, run);
+    try {
+      for (int from = 0; from < selected.size(); from += archiveBatchSize) {
+        archiveNewMovies(selected.subList(from, Math.min(from + archiveBatchSize,
+            selected.size())), run);
+      }
+      return true;
+    } catch (Exception e) {
+      log.error("Error while archiving the selected candidates.", e);
+      archiveMetrics.recordFailure("archive", e);
+      return false;
+    }
+  }
+
+  private void archiveCandidates(List<Movie> candidates, ArchiveRun run) {
+    run.summary.addCandidates(candidates.size());
+    fileMetadataCache.observe(candidates);
+    var index = new CandidateIndex(candidates);
+    var diff = index.diff(movieRepository.findExistingGuids(index.guids()));
+    archiveMetrics.recordDiff(diff);
+    log.debug("{} new and {} already archived candidates.", diff.getNewMovies().size(),
+        diff.getAlreadyArchived().size());
+    if (run.planning || run.selection.isCapacityBound()) {
+      run.deferred.addAll(diff.getNewMovies());
+      return;
+    }
+    archiveNewMovies(select(diff.getNewMovies(), run), run);
+  }
+
+  private List<Movie> select(List<Movie> candidates, ArchiveRun run) {
+    List<Movie> selected = run.selection.select(candidates);
+    run.leaveBehindUnselected(candidates, selected.stream().map(Movie::getGuid).toList());
+    return selected;
+  }
+
+  private void archiveNewMovies(List<Movie> movies, ArchiveRun run) {
+    var index = new CandidateIndex(movies);
+    var newMovieModels = movies.stream().map(movie -> {
+      var movieModel = new MovieModel();
+      movieModel.setGuid(movie.getGuid());
+      movieModel.setThumb(movie.getThumb());
+      movieModel.setLastViewedAt(movie.getLastViewedAt());
+      movieModel.setTitle(movie.getTitle());
+      movieModel.setAddedAt(movie.getAddedAt());
+      movieModel.setViewCount(movie.getViewCount());
+      movieModel.setOriginallyAvailableAt(movie.getOriginallyAvailableAt());
+      return movieModel;
+    }).collect(Collectors.toCollection(LinkedHashSet::new));
+
+    archiveMetrics.recordDbBatch("upsert_movies", () -> movieRepository.upsertAll(newMovieModels));
+    var movieFiles = new LinkedHashMap<MovieModel, List<MovieFileModel>>();
+    newMovieModels.forEach(movie -> movieFiles.put(movie, index.get(movie.getGuid())
+        .map(Movie::getFiles).orElse(List.of()).stream()
+        .map(file -> pendingMovieFile(movie, file))
+        .toList()));
+    archiveMetrics.recordDbBatch("persist_files", () -> movieFileRepository.persistAll(
+        movieFiles.values().stream().flatMap(List::stream).toList()));
+    if (clusterWorkService.isEnabled()) {
+      var filesByGuid = new LinkedHashMap<String, List<MovieFileModel>>();
+      movieFiles.forEach((movie, files) -> filesByGuid.put(movie.getGuid(), files));
+      archiveMetrics.recordDbBatch("enqueue_work", () -> clusterWorkService.enqueue(filesByGuid));
+      log.info("Queued {} movie(s) for the cluster.", filesByGuid.size());
+      return;
+    }
+    if (executionMode == ExecutionMode.VIRTUAL) {
+      runArchiveWorkflows(movieFiles, run);
+    } else {
+      saveMovieFiles(movieFiles, run);
+    }
+  }
+
+  private static MovieFileModel pendingMovieFile(MovieModel movie, String file) {
+    var movieFileModel = new MovieFileModel();
+    movieFileModel.setMovieModel(movie);
+    movieFileModel.setOriginalFile(file);
+    movieFileModel.setState(ArchiveState.PENDING);
+    return movieFileModel;
+  }
+
+  @Override
+  public ArchiveRunSummary recoverUnfinished() {
+    var summary = new ArchiveRunSummary();
+    if (recoverUnfinished(summary)) {
+      summary.markCompleted();
+    }
+    return summary;
+  }
+
+  /**
+   * Resumes every movie with a file that is still being archived, skipping the steps
+   * their states show as finished. A movie that cannot be finished is rolled back by the same
+   * rule as during a run, see {@link #rollBack}.
+   * <p>
+   * In cluster mode the unfinished movies are queued instead, as their files may only be local
+   * to another node. Movies already in the queue keep their place.
+   *
+   * @return whether every unfinished movie could be finished or rolled back.
+   */
+  private boolean recoverUnfinished(ArchiveRunSummary summary) {
+    Map<String, List<MovieFileModel>> unfinished;
+    try {
+      unfinished = movieFileRepository.findAllByStateIn(UNFINISHED_STATES).stream()
+          .collect(Collectors.groupingBy(movieFile -> movieFile.getMovieModel().getGuid(),
+              LinkedHashMap::new, Collectors.toList()));
+    } catch (Exception e) {
+      log.error("Error while looking for unfinished movies.", e);
+      archiveMetrics.recordFailure("recovery", e);
+      return false;
+    }
+    if (clusterWorkService.isEnabled()) {
+      clusterWorkService.enqueue(unfinished);
+      return true;
+    }
+    if (!unfinished.isEmpty()) {
+      log.info("Recovering {} unfinished movie(s).", unfinished.size());
+    }
+    boolean recovered = true;
+    for (Map.Entry<String, List<MovieFileModel>> movie : unfinished.entrySet()) {
+      List<MovieFileModel> files = movie.getValue();
+      try {
+        for (MovieFileModel movieFile : files) {
+          transferEngine.callWithRetries(movieFile.getOriginalFile(), () -> backup(movieFile));
+        }
+        for (MovieFileModel movieFile : files) {
+          transferEngine.callWithRetries(movieFile.getOriginalFile(),
+              () -> swap(movieFile, leaseFence));
+        }
+        markDone(Set.of(movie.getKey()));
+        files.forEach(movieFile -> summary.addArchivedFile(movieFile.getSize()));
+        summary.addArchivedMovies(1);
+      } catch (CancellationException e) {
+        log.error("Stopping the recovery, the lease has been lost.", e);
+        return false;
+      } catch (Exception e) {
+        log.error(String.format("Could not recover the archive of %s.", movie.getKey()), e);
+        archiveMetrics.recordFailure("recovery", e);
+        summary.addFailedMovies(1);
+        if (isUntouched(files)) {
+          log.info("Rolling back {}, its originals are untouched.", movie.getKey());
+          deleteMovies(Set.of(movie.getKey()));
+        } else {
+          recovered = false;
+        }
+      }
+    }
+    return recovered;
+  }
+
+  /**
+   * Archives every movie in its own workflow, so a movie is swapped for samples as soon as its
+   * own files are copied instead of waiting for the whole batch.
+   */
+  private void runArchiveWorkflows(Map<MovieModel, List<MovieFileModel>> movieFiles,
+      ArchiveRun run) {
+    var workflows = new HashMap<MovieModel, CompletableFuture<List<MovieFileModel>>>();
+    movieFiles.forEach((movie, files) -> workflows.put(movie,
+        workflowExecutor.submit(() -> archiveMovie(movie.getGuid(), files, leaseFence))));
+
+    var failedGuids = new HashSet<String>();
+    workflows.forEach((movie, workflow) -> {
+      try {
+        workflow.join().forEach(movieFile -> run.summary.addArchivedFile(movieFile.getSize()));
+        run.summary.addArchivedMovies(1);
+      } catch (CompletionException | CancellationException e) {
+        failedGuids.add(movie.getGuid());
+        run.leaveBehind(movie.getLastViewedAt());
+      }
+    });
+    run.summary.addFailedMovies(failedGuids.size());
   }
 
-  private void saveMovieFiles(Set<Movie> newMovies, Set<MovieModel> newMovieModels) {
-    var movieFileModelSet = new HashSet<MovieFileModel>();
+  /**
+   * Copies, verifies and swaps all files of one movie. Every step holds a permit of the resource
+   * it mostly waits on. On failure the movie is rolled back like in the batch path, unless this
+   * instance no longer owns it.
+   */
+  private List<MovieFileModel> archiveMovie(String guid, List<MovieFileModel> files,
+      Fence fence) throws Exception {
+    Resource transferResource = LOCAL_HOST.equals(archiveTransport.host())
+        ? Resource.DISK : Resource.NETWORK;
+    try {
+      for (MovieFileModel movieFile : files) {
+        transferEngine.callWithRetries(movieFile.getOriginalFile(),
+            () -> workflowExecutor.withPermit(transferResource, () -> backup(movieFile)));
+      }
+    } catch (CancellationException e) {
+      throw e;
+    } catch (Exception e) {
+      archiveMetrics.recordFailure("transfer", e);
+      rollBackWithPermit(guid, files, fence);
+      throw e;
+    }
 
-    newMovieModels.forEach(movie -> {
+    for (MovieFileModel movieFile : files) {
+      String orgFilePath = movieFile.getOriginalFile();
+      try {
+        transferEngine.callWithRetries(orgFilePath,
+            () -> workflowExecutor.withPermit(Resource.DISK, () -> swap(movieFile, fence)));
+      } catch (CancellationException e) {
+        throw e;
+      } catch (Exception e) {
+        log.error(String.format("Something went wrong while replacing the movie with a sample : %s",
+            orgFilePath), e);
+        archiveMetrics.recordFailure("sample_swap", e);
+        rollBackWithPermit(guid, files, fence);
+        throw e;
+      }
+    }
+    workflowExecutor.withPermit(Resource.DB, () -> {
+      fence.check(guid);
+      markDone(Set.of(guid));
+      return null;
+    });
+    return files;
+  }
 
-      Optional<Movie> movieOptional = newMovies.stream()
-          .filter(newMovie -> movie.getGuid().equals(newMovie.getGuid())).findFirst();
-      List<String> files = new ArrayList<>();
-      if (movieOptional.isPresent()) {
-        files = movieOptional.get().getFiles();
+  @Override
+  public ArchiveRunSummary archiveClaimedMovies() {
+    var summary = new ArchiveRunSummary();
+    var workflows = new LinkedHashMap<String, CompletableFuture<List<MovieFileModel>>>();
+    for (String guid : clusterWorkService.claim()) {
+      List<MovieFileModel> files = movieFileRepository.findByMovieModelGuidOrderByOriginalFile(
+          guid);
+      if (files.isEmpty()) {
+        clusterWorkService.complete(guid);
+      } else {
+        workflows.put(guid, workflowExecutor.submit(() -> archiveMovie(guid, files,
+            clusterWorkService::checkClaim)));
       }
-      files.forEach(movieFile -> {
-        var movieFileModel = createBackupAndGetMovieFile(movie, movieFile);
-        if (movieFileModel.isEmpty()) {
-          movieRepository.deleteById(movie.getGuid());
+    }
+    workflows.forEach((guid, workflow) -> {
+      try {
+        workflow.join().forEach(movieFile -> summary.addArchivedFile(movieFile.getSize()));
+        summary.addArchivedMovies(1);
+        clusterWorkService.complete(guid);
+      } catch (CompletionException | CancellationException e) {
+        summary.addFailedMovies(1);
+        if (e instanceof CancellationException
+            || e.getCause() instanceof CancellationException) {
+          log.warn("Lost the claim on {}, leaving it to the node that holds it now.", guid);
           return;
         }
-        movieFileModelSet.add(movieFileModel.get());
-      });
+        log.error(String.format("Could not archive the claimed movie %s.", guid), e);
+        if (movieRepository.existsById(guid)) {
+          clusterWorkService.release(guid);
+        } else {
+          clusterWorkService.complete(guid);
+        }
+      }
+    });
+    summary.markCompleted();
+    return summary;
+  }
+
+  private void rollBackWithPermit(String guid, List<MovieFileModel> files, Fence fence)
+      throws Exception {
+    workflowExecutor.withPermit(Resource.DB, () -> {
+      rollBack(Map.of(guid, files), fence);
+      return null;
     });
-    movieFileRepository.saveAll(movieFileModelSet);
-    replaceOriginalFiles(movieFileModelSet);
   }
 
-  private void replaceOriginalFiles(Set<MovieFileModel> movieFileModelSet) {
-    movieFileModelSet.forEach(movieFileModel -> {
+  private void saveMovieFiles(Map<MovieModel, List<MovieFileModel>> movieFiles,
+      ArchiveRun run) {
+    var backups = new HashMap<MovieModel, List<CompletableFuture<MovieFileModel>>>();
 
-      var orgFile = new File(movieFileModel.getOriginalFile());
-      var name = orgFile.getName();
-      var extension = name.substring(name.lastIndexOf('.'));
-      boolean replaceWithSampleSuccess = replaceWithSample(extension,
-          movieFileModel.getOriginalFile());
-      if (!replaceWithSampleSuccess) {
-        movieRepository.deleteById(movieFileModel.getMovieModel().getGuid());
+    movieFiles.forEach((movie, files) -> backups.put(movie, files.stream()
+        .map(movieFile -> transferEngine.submit(archiveTransport.host(),
+            movieFile.getOriginalFile(), () -> backup(movieFile)))
+        .toList()));
+
+    var backedUpMovies = new HashMap<MovieModel, List<MovieFileModel>>();
+    var failedMovies = new HashMap<String, List<MovieFileModel>>();
+    backups.forEach((movie, transfers) -> {
+      try {
+        backedUpMovies.put(movie, transfers.stream().map(CompletableFuture::join).toList());
+      } catch (CompletionException | CancellationException e) {
+        transfers.forEach(transfer -> transfer.cancel(true));
+        archiveMetrics.recordFailure("transfer", e);
+        failedMovies.put(movie.getGuid(), movieFiles.get(movie));
+        run.leaveBehind(movie.getLastViewedAt());
       }
     });
+    rollBack(failedMovies, leaseFence);
+    replaceOriginalFiles(backedUpMovies, run);
+    run.summary.addFailedMovies(failedMovies.size());
   }
 
-  private Optional<MovieFileModel> createBackupAndGetMovieFile(MovieModel movie, String movieFile) {
-    var movieFileModel = new MovieFileModel();
-    movieFileModel.setMovieModel(movie);
-    movieFileModel.setOriginalFile(movieFile);
+  private void replaceOriginalFiles(Map<MovieModel, List<MovieFileModel>> backedUpMovies,
+      ArchiveRun run) {
+    var replacements = new HashMap<MovieFileModel, CompletableFuture<MovieFileModel>>();
+    backedUpMovies.values().forEach(files -> files.forEach(movieFileModel -> replacements.put(
+        movieFileModel, transferEngine.submit(LOCAL_HOST, movieFileModel.getOriginalFile(),
+            () -> swap(movieFileModel, leaseFence)))));
+    var swappedMovies = new HashMap<String, List<MovieFileModel>>();
+    var failedMovies = new HashMap<String, List<MovieFileModel>>();
+    backedUpMovies.forEach((movie, files) -> {
+      boolean swapped = true;
+      for (MovieFileModel movieFileModel : files) {
+        try {
+          replacements.get(movieFileModel).join();
+        } catch (CompletionException | CancellationException e) {
+          log.error(String.format(
+              "Something went wrong while replacing the movie with a sample : %s",
+              movieFileModel.getOriginalFile()), e);
+          archiveMetrics.recordFailure("sample_swap", e);
+          swapped = false;
+        }
+      }
+      if (swapped) {
+        swappedMovies.put(movie.getGuid(), files);
+      } else {
+        failedMovies.put(movie.getGuid(), files);
+        run.leaveBehind(movie.getLastViewedAt());
+      }
+    });
+    rollBack(failedMovies, leaseFence);
+    markDone(swappedMovies.keySet());
+    run.summary.addFailedMovies(failedMovies.size());
+    swappedMovies.values().forEach(files -> files.forEach(
+        movieFileModel -> run.summary.addArchivedFile(movieFileModel.getSize())));
+    run.summary.addArchivedMovies(swappedMovies.size());
+  }
 
-    var destinationFilePath = copyFileToArchive(movieFile);
-    if (destinationFilePath.isEmpty()) {
-      return Optional.empty();
-    }
-    movieFileModel.setBackupFile(destinationFilePath.get());
-    return Optional.of(movieFileModel);
+  private static String extension(String filePath) {
+    var name = new File(filePath).getName();
+    return name.substring(name.lastIndexOf('.'));
   }
 
   /**
-   * TODO improvement
-   * <ol>
-   * <li> rename the org file with <original_file>.bkp</li>
-   * <li> copy the sample with using the original name</li>
-   * <li> on success, delete the bkp file</li>
-   * </ol>
+   * Removes the failed movies none of whose files got past {@link ArchiveState#COPYING}. A
+   * movie with a verified backup is left to the recovery sweep, which resumes it from
+   * {@link ArchiveState#VERIFIED}: its original may already be a sample, and dropping its rows
+   * would lose track of that backup. A movie this instance no longer owns is left to its new
+   * owner.
    */
-  private boolean replaceWithSample(String extension, String orgFilePath) {
+  private void rollBack(Map<String, List<MovieFileModel>> failedMovies, Fence fence) {
+    var guids = new HashSet<String>();
+    failedMovies.forEach((guid, files) -> {
+      if (!isOwned(guid, fence)) {
+        log.warn("Leaving {} to its new owner.", guid);
+      } else if (isUntouched(files)) {
+        guids.add(guid);
+      } else {
+        log.warn("Leaving {} to the recovery sweep, some of its backups are verified already.",
+            guid);
+      }
+    });
+    deleteMovies(guids);
+  }
 
+  /**
+   * @param key the guid of the movie, or the name of the job for a check of the whole run
+   */
+  private static boolean isOwned(String key, Fence fence) {
     try {
-      String[] command = new String[]{"cp", sampleFilepath + extension, orgFilePath};
-
-      ProcessBuilder pb = new ProcessBuilder();
-      pb.command(command);
-      pb.start();
-      pb.wait(COPY_WAIT_TIME);
+      fence.check(key);
       return true;
-    } catch (IOException e) {
-      log.error(String.format("Something went wrong while replacing the movie with a sample : %s",
-          orgFilePath), e);
-    } catch (InterruptedException e) {
-      log.error(String.format("Timeout happened while replacing the movie with a sample : %s",
-          orgFilePath), e);
+    } catch (CancellationException e) {
+      return false;
+    }
+  }
+
+  private static boolean isUntouched(List<MovieFileModel> files) {
+    return files.stream().allMatch(movieFile -> movieFile.getState() == ArchiveState.PENDING
+        || movieFile.getState() == ArchiveState.COPYING);
+  }
+
+  private void markDone(Set<String> guids) {
+    if (!guids.isEmpty()) {
+      archiveMetrics.recordDbBatch("mark_done", () -> {
+        if (movieFileRepository.updateOwnedStateByMovieGuidIn(guids, ArchiveState.DONE, JOB_NAME,
+            jobRunService.owner()) == 0) {
+          throw new CancellationException(String.format(
+              "Could not mark %d movie(s) as done, this instance no longer owns them.",
+              guids.size()));
+        }
+      });
     }
-    return false;
   }
 
-  private Optional<String> copyFileToArchive(String movieFilePath) {
+  /**
+   * Removes the movies and their files with one bulk delete per table.
+   */
+  private void deleteMovies(Set<String> guids) {
+    if (guids.isEmpty()) {
+      return;
+    }
+    archiveMetrics.recordDbBatch("delete_movies", () -> {
+      movieFileRepository.deleteAllByMovieGuidIn(guids);
+      movieRepository.deleteAllByIdInBatch(guids);
+    });
+  }
+
+  /**
+   * Copies and verifies the file, unless its state shows that was done already. The backup is
+   * recorded together with {@link ArchiveState#VERIFIED}, so a crash before that only repeats the
+   * copy.
+   */
+  private MovieFileModel backup(MovieFileModel movieFileModel) throws Exception {
+    if (movieFileModel.getState() != ArchiveState.PENDING
+        && movieFileModel.getState() != ArchiveState.COPYING) {
+      return movieFileModel;
+    }
+    updateState(movieFileModel, ArchiveState.COPYING);
+    String movieFile = movieFileModel.getOriginalFile();
+    long start = System.nanoTime();
+    ArchivedFile archivedFile = archiveTransport.archive(movieFile);
+    archiveMetrics.recordTransfer(archiveTransport.host(), archivedFile.getSize(),
+        Duration.ofNanos(System.nanoTime() - start));
+    if (verifyBackups) {
+      verifyBackup(archivedFile);
+    }
+    if (archivedFile.getChecksum() != null) {
+      fileMetadataCache.recordChecksum(movieFile, archivedFile.getChecksum());
+    }
+    if (movieFileRepository.recordBackup(movieFileModel.getMovieFileModelId(),
+        archivedFile.getBackupFile(), archivedFile.getSize(), archivedFile.getChecksum(),
+        ArchiveState.VERIFIED, JOB_NAME, jobRunService.owner()) == 0) {
+      throw notOwned(movieFileModel);
+    }
+    movieFileModel.setBackupFile(archivedFile.getBackupFile());
+    movieFileModel.setSize(archivedFile.getSize());
+    movieFileModel.setChecksum(archivedFile.getChecksum());
+    movieFileModel.setState(ArchiveState.VERIFIED);
+    return movieFileModel;
+  }
+
+  /**
+   * Replaces the original with a sample once its backup is verified. After a crash between the
+   * swap and recording it, the original already is a sample and is swapped with a sample again,
+   * which changes nothing.
+   */
+  private MovieFileModel swap(MovieFileModel movieFileModel, Fence fence) throws Exception {
+    if (movieFileModel.getState() == ArchiveState.VERIFIED) {
+      fence.check(movieFileModel.getMovieModel().getGuid());
+      String orgFilePath = movieFileModel.getOriginalFile();
+      replaceWithSample(extension(orgFilePath), orgFilePath);
+      updateState(movieFileModel, ArchiveState.SWAPPED);
+    }
+    return movieFileModel;
+  }
+
+  private void updateState(MovieFileModel movieFileModel, ArchiveState state) {
+    if (movieFileRepository.updateOwnedState(movieFileModel.getMovieFileModelId(), state,
+        JOB_NAME, jobRunService.owner()) == 0) {
+      throw notOwned(movieFileModel);
+    }
+    movieFileModel.setState(state);
+  }
+
+  private static CancellationException notOwned(MovieFileModel movieFileModel) {
+    return new CancellationException(String.format(
+        "Could not update %s, this instance no longer owns it.",
+        movieFileModel.getOriginalFile()));
+  }
+
+  /**
+   * Reads the backup back and compares it with the digest computed while copying. The original
+   * is only replaced with a sample once this passed, and a mismatch fails the transfer so it is
+   * retried.
+   */
+  private void verifyBackup(ArchivedFile archivedFile) throws Exception {
+    String backupChecksum = archiveTransport.checksum(archivedFile.getBackupFile());
+    if (!archivedFile.getChecksum().equalsIgnoreCase(backupChecksum)) {
+      throw new IOException(String.format("Checksum mismatch for backup %s: expected %s, got %s",
+          archivedFile.getBackupFile(), archivedFile.getChecksum(), backupChecksum));
+    }
+  }
 
-    String destination = MessageFormat.format("{1}:{2}:{3}", archiveHostUser, archiveHostName,
-        archiveFilePath);
+  private Void replaceWithSample(String extension, String orgFilePath)
+      throws IOException, InterruptedException, TimeoutException {
+    Timer.Sample sample = archiveMetrics.start();
+    boolean success = false;
     try {
+      sampleReplacer.replace(Path.of(sampleFilepath + extension), Path.of(orgFilePath));
+      success = true;
+      return null;
+    } finally {
+      archiveMetrics.recordSampleSwap(sample, success);
+    }
+  }
 
-      String[] command = new String[]{"scp", "-i", sshKeyFilePath, movieFilePath, destination};
+  /**
+   * Fails with a {@link CancellationException} once this instance may no longer own the movie,
+   * so it never swaps an original another instance may be archiving by now.
+   */
+  @FunctionalInterface
+  private interface Fence {
 
-      ProcessBuilder pb = new ProcessBuilder();
-      pb.command(command);
-      pb.start();
-      pb.wait(COPY_WAIT_TIME);
+    void check(String guid);
+  }
 
-    } catch (IOException e) {
-      log.error(String.format("Something went wrong while copying the movie : %s",
-          movieFilePath), e);
-      return Optional.empty();
-    } catch (InterruptedException e) {
-      log.error(String.format("Timeout happened while copying the movie : %s",
-          movieFilePath), e);
-      return Optional.empty();
+  /**
+   * State of one {@link #archiveMovies()} call, or of the collection of candidates for a plan.
+   * A planning run defers every new candidate and never archives any. Candidates that failed or
+   * were not selected are left behind, which holds the checkpoints of the run back.
+   */
+  private static class ArchiveRun {
+
+    private final ArchiveRunSummary summary = new ArchiveRunSummary();
+    private final ArchivePolicyEngine.Selection selection;
+    private final boolean planning;
+    private final List<Movie> deferred = new ArrayList<>();
+    private long oldestLeftBehind = Long.MAX_VALUE;
+
+    private ArchiveRun(ArchivePolicyEngine.Selection selection, boolean planning) {
+      this.selection = selection;
+      this.planning = planning;
+    }
+
+    private void leaveBehind(long lastViewedAt) {
+      oldestLeftBehind = Math.min(oldestLeftBehind, lastViewedAt);
+    }
+
+    private void leaveBehindUnselected(List<Movie> candidates, Collection<String> selected) {
+      var selectedGuids = new HashSet<>(selected);
+      candidates.stream().filter(movie -> !selectedGuids.contains(movie.getGuid()))
+          .forEach(movie -> leaveBehind(movie.getLastViewedAt()));
+    }
+
+    private OptionalLong oldestLeftBehind() {
+      return oldestLeftBehind == Long.MAX_VALUE ? OptionalLong.empty()
+          : OptionalLong.of(oldestLeftBehind);
     }
-    return Optional.of(destination);
   }
 }
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service.impl;
+
+import com.sohardh.plexarchiver.dao.model.ArchiveState;
+import com.sohardh.plexarchiver.dao.model.MovieFileModel;
+import com.sohardh.plexarchiver.dao.model.MovieModel;
+import com.sohardh.plexarchiver.dao.model.RestoreReason;
+import com.sohardh.plexarchiver.dao.model.RestoreRequestModel;
+import com.sohardh.plexarchiver.dao.model.RestoreStatus;
+import com.sohardh.plexarchiver.dao.repository.MovieFileRepository;
+import com.sohardh.plexarchiver.dao.repository.MovieRepository;
+import com.sohardh.plexarchiver.dao.repository.RestoreRequestRepository;
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.service.ArchiveMetrics;
+import com.sohardh.plexarchiver.service.ArchiveTransport;
+import com.sohardh.plexarchiver.service.MovieRestoreService;
+import com.sohardh.plexarchiver.service.PlexFetchDataService;
+import com.sohardh.plexarchiver.service.TransferEngine;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Copies archived movies back over their samples.
+ * <p>
+ * Restore requests are stored in <code>pa.restore_request</code> and worked off by
+ * <code>restore.workers</code> workers from a priority queue, oldest request first and smaller
+ * files first within a request. Requesting one file of a movie queues all its other files too,
+ * so a multi-part movie is complete by the time the first part has been watched, but the file
+ * that was asked for is restored first. Restored files are kept as
+ * {@link ArchiveState#RESTORED}, and once all files of a movie are restored the movie is kept for
+ * <code>restore.retention</code>. Archive runs see it as archived during that time and leave it
+ * alone, afterwards it is removed from <code>pa.movies</code> and becomes a regular archive
+ * candidate again.
+ */
+@Slf4j
+@Service
+public class MovieRestoreServiceImpl implements MovieRestoreService {
+
+  private static final String PLAYED_SINCE = "lastViewedAt>>=";
+  private static final int MESSAGE_LENGTH = 2048;
+  private static final Comparator<RestoreRequestModel> RESTORE_ORDER = Comparator
+      .comparing(RestoreRequestModel::getRequestedAt)
+      .thenComparing(request -> request.getReason() == RestoreReason.PREFETCH)
+      .thenComparing(RestoreRequestModel::getSize,
+          Comparator.nullsLast(Comparator.naturalOrder()));
+  private final PlexFetchDataService plexFetchDataService;
+  private final MovieRepository movieRepository;
+  private final MovieFileRepository movieFileRepository;
+  private final RestoreRequestRepository restoreRequestRepository;
+  private final ArchiveTransport archiveTransport;
+  private final TransferEngine transferEngine;
+  private final ArchiveMetrics archiveMetrics;
+  private final PriorityBlockingQueue<RestoreRequestModel> queue =
+      new PriorityBlockingQueue<>(11, RESTORE_ORDER);
+  private final Set<Long> queuedIds = ConcurrentHashMap.newKeySet();
+  @Value("${restore.workers}")
+  private int restoreWorkers;
+  @Value("${restore.scan.lookback}")
+  private Duration scanLookback;
+  @Value("${restore.stale-after}")
+  private Duration staleAfter;
+  @Value("${restore.retention}")
+  private Duration retention;
+  @Value("${archive.verify.enabled}")
+  private boolean verifyRestores;
+  private ExecutorService workers;
+
+  public MovieRestoreServiceImpl(PlexFetchDataService plexFetchDataService,
+      MovieRepository movieRepository, MovieFileRepository movieFileRepository,
+      RestoreRequestRepository restoreRequestRepository, ArchiveTransport archiveTransport,
+      TransferEngine transferEngine, ArchiveMetrics archiveMetrics) {
+    this.plexFetchDataService = plexFetchDataService;
+    this.movieRepository = movieRepository;
+    this.movieFileRepository = movieFileRepository;
+    this.restoreRequestRepository = restoreRequestRepository;
+    this.archiveTransport = archiveTransport;
+    this.transferEngine = transferEngine;
+    this.archiveMetrics = archiveMetrics;
+  }
+
+  @PostConstruct
+  void init() {
+    workers = Executors.newFixedThreadPool(restoreWorkers,
+        new CustomizableThreadFactory("restore-"));
+    for (int i = 0; i < restoreWorkers; i++) {
+      workers.submit(this::restoreQueued);
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    workers.shutdownNow();
+  }
+
+  @Override
+  public int requestRestore(String guid) {
+    int queued = queue(guid, RestoreReason.USER);
+    refreshQueue();
+    return queued;
+  }
+
+  /**
+   * Asks plex for the movies played within <code>restore.scan.lookback</code>. An archived movie
+   * whose <code>lastViewedAt</code> is newer than the one stored when it was archived has had its
+   * sample played.
+   */
+  @Override
+  public int queuePlayedSamples() {
+    long since = Instant.now().minus(scanLookback).getEpochSecond();
+    Map<String, List<String>> filtersBySection = new LinkedHashMap<>();
+    plexFetchDataService.movieSections().toIterable()
+        .forEach(section -> filtersBySection.put(section.getKey(),
+            List.of(PLAYED_SINCE + since)));
+    List<Movie> played = plexFetchDataService.streamCandidates(filtersBySection)
+        .collectList().block();
+
+    int queued = 0;
+    if (played != null && !played.isEmpty()) {
+      Map<String, MovieModel> archived = movieRepository
+          .findAllById(played.stream().map(Movie::getGuid).toList()).stream()
+          .collect(Collectors.toMap(MovieModel::getGuid, Function.identity()));
+      for (Movie movie : played) {
+        MovieModel archivedMovie = archived.get(movie.getGuid());
+        if (archivedMovie != null && archivedMovie.getRestoredAt() == null
+            && movie.getLastViewedAt() > archivedMovie.getLastViewedAt()) {
+          log.info("Sample of {} has been played, queueing its restore.", movie.getTitle());
+          queued += queue(movie.getGuid(), RestoreReason.PLAYED);
+        }
+      }
+    }
+    refreshQueue();
+    return queued;
+  }
+
+  @Override
+  public int releaseRestoredMovies() {
+    Set<String> guids = movieRepository.findRestoredBefore(Instant.now().minus(retention));
+    if (!guids.isEmpty()) {
+      movieFileRepository.deleteAllByMovieGuidIn(guids);
+      movieRepository.deleteAllByIdInBatch(guids);
+    }
+    return guids.size();
+  }
+
+  /**
+   * Files of a movie still being archived have their original in place, nothing to restore.
+   */
+  private static boolean isSwapped(MovieFileModel file) {
+    return file.getState() == ArchiveState.SWAPPED || file.getState() == ArchiveState.DONE;
+  }
+
+  private int queue(String guid, RestoreReason reason) {
+    List<MovieFileModel> files = movieFileRepository.findByMovieModelGuidOrderByOriginalFile(guid)
+        .stream().filter(MovieRestoreServiceImpl::isSwapped).toList();
+    Instant requestedAt = Instant.now();
+    int queued = 0;
+    for (int i = 0; i < files.size(); i++) {
+      MovieFileModel file = files.get(i);
+      RestoreReason fileReason = i == 0 ? reason : RestoreReason.PREFETCH;
+      queued += restoreRequestRepository.queue(guid, file.getMovieFileModelId(), file.getSize(),
+          fileReason.name(), requestedAt);
+    }
+    return queued;
+  }
+
+  /**
+   * Loads queued requests from the db, including those queued by other instances and those left
+   * behind by an instance that died while restoring.
+   */
+  private synchronized void refreshQueue() {
+    int requeued = restoreRequestRepository.requeueStale(Instant.now().minus(staleAfter));
+    if (requeued > 0) {
+      log.warn("Queued {} stale restore(s) again.", requeued);
+    }
+    restoreRequestRepository.findByStatus(RestoreStatus.QUEUED).stream()
+        .filter(request -> queuedIds.add(request.getRestoreRequestId()))
+        .forEach(queue::add);
+  }
+
+  private void restoreQueued() {
+    while (!Thread.currentThread().isInterrupted()) {
+      RestoreRequestModel request;
+      try {
+        request = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      try {
+        restore(request);
+      } catch (Exception e) {
+        log.error(String.format("Could not restore request %d.", request.getRestoreRequestId()),
+            e);
+      } finally {
+        queuedIds.remove(request.getRestoreRequestId());
+      }
+    }
+  }
+
+  private void restore(RestoreRequestModel request) {
+    Long requestId = request.getRestoreRequestId();
+    if (restoreRequestRepository.claim(requestId, Instant.now()) == 0) {
+      return;
+    }
+    MovieFileModel movieFile = movieFileRepository.findById(request.getMovieFileModelId())
+        .orElse(null);
+    if (movieFile == null) {
+      finish(requestId, RestoreStatus.FAILED, "The movie file is no longer archived.");
+      return;
+    }
+
+    Timer.Sample sample = archiveMetrics.start();
+    String expectedChecksum = verifyRestores ? movieFile.getChecksum() : null;
+    try {
+      transferEngine.callWithRetries(movieFile.getOriginalFile(), () -> {
+        archiveTransport.restore(movieFile.getBackupFile(), movieFile.getOriginalFile(),
+            expectedChecksum);
+        return null;
+      });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      archiveMetrics.recordRestore(sample, request.getReason().name(), false);
+      finish(requestId, RestoreStatus.FAILED, "Interrupted.");
+      return;
+    } catch (Exception e) {
+      log.error(String.format("Something went wrong while restoring %s.",
+          movieFile.getOriginalFile()), e);
+      archiveMetrics.recordRestore(sample, request.getReason().name(), false);
+      archiveMetrics.recordFailure("restore", e);
+      finish(requestId, RestoreStatus.FAILED, e.toString());
+      return;
+    }
+    archiveMetrics.recordRestore(sample, request.getReason().name(), true);
+    movieFileRepository.updateState(movieFile.getMovieFileModelId(), ArchiveState.RESTORED);
+    finish(requestId, RestoreStatus.DONE, null);
+    log.info("Restored {}.", movieFile.getOriginalFile());
+
+    String guid = request.getGuid();
+    if (!restoreRequestRepository.existsByGuidAndStatusNot(guid, RestoreStatus.DONE)) {
+      movieRepository.markRestored(guid, Instant.now());
+      log.info("All files of {} have been restored, archive runs skip it for {}.", guid,
+          retention);
+    }
+  }
+
+  private void finish(Long requestId, RestoreStatus status, String message) {
+    if (message != null && message.length() > MESSAGE_LENGTH) {
+      message = message.substring(0, MESSAGE_LENGTH);
+    }
+    restoreRequestRepository.finish(requestId, status.name(), Instant.now(), message);
+  }
+}
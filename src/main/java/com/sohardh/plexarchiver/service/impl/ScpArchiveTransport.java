@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service.impl;
+
+import com.sohardh.plexarchiver.dto.ArchivedFile;
+import com.sohardh.plexarchiver.service.ArchiveTransport;
+import com.sohardh.plexarchiver.service.TransferThrottle;
+import com.sohardh.plexarchiver.service.TransferThrottle.Direction;
+import com.sohardh.plexarchiver.util.ArchivePathUtil;
+import com.sohardh.plexarchiver.util.DigestUtil;
+import com.sohardh.plexarchiver.util.ProcessUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * Copies files to a remote archive host over ssh.
+ * <p>
+ * The file is streamed into <code>cat</code> on the archive host over
+ * <code>ssh -i {ssh key} {hostUser}@{hostname}</code>, so the digest of
+ * <code>archive.verify.enabled</code> can be computed from the bytes being sent and the
+ * {@link TransferThrottle} can throttle the stream. The backup keeps the path of the original
+ * relative to <code>movies.path</code>, so movies with the same file name in different folders
+ * never share a backup. The remote file is written under a temporary name and renamed once
+ * complete.
+ */
+@Service
+@ConditionalOnProperty(name = "archive.transport", havingValue = "scp", matchIfMissing = true)
+public class ScpArchiveTransport implements ArchiveTransport {
+
+  private static final String PARTIAL_SUFFIX = ".part";
+  private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+  private final TransferThrottle transferThrottle;
+  @Value("${movies.path}")
+  private String moviesFilePath;
+  @Value("${archive.path}")
+  private String archiveFilePath;
+  @Value("${archive.host.name}")
+  private String archiveHostName;
+  @Value("${archive.host.user}")
+  private String archiveHostUser;
+  @Value("${ssh.file.path}")
+  private String sshKeyFilePath;
+  @Value("${archive.transfer.timeout}")
+  private Duration transferTimeout;
+  @Value("${archive.verify.enabled}")
+  private boolean verify;
+  @Value("${archive.verify.algorithm}")
+  private String checksumAlgorithm;
+
+  public ScpArchiveTransport(TransferThrottle transferThrottle) {
+    this.transferThrottle = transferThrottle;
+  }
+
+  @Override
+  public String host() {
+    return archiveHostName;
+  }
+
+  @Override
+  public ArchivedFile archive(String movieFilePath)
+      throws IOException, InterruptedException, TimeoutException {
+    Path source = Path.of(movieFilePath);
+    Path backupPath = Path.of(archiveFilePath)
+        .resolve(ArchivePathUtil.relativeBackupPath(moviesFilePath, movieFilePath));
+    String backupFile = backupPath.toString();
+    MessageDigest digest = verify ? DigestUtil.newDigest(checksumAlgorithm) : null;
+    String partial = ProcessUtil.shellQuote(backupFile + PARTIAL_SUFFIX);
+    String remoteCommand = "mkdir -p " + ProcessUtil.shellQuote(backupPath.getParent().toString())
+        + " && cat > " + partial + " && mv " + partial + " " + ProcessUtil.shellQuote(backupFile);
+    long[] size = new long[1];
+    int exitCode = ProcessUtil.run(ssh(remoteCommand), transferTimeout, stdin -> {
+      byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+      try (InputStream in = Files.newInputStream(source)) {
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+          transferThrottle.acquire(Direction.READ, read);
+          if (digest != null) {
+            digest.update(buffer, 0, read);
+          }
+          transferThrottle.acquire(Direction.WRITE, read);
+          stdin.write(buffer, 0, read);
+          size[0] += read;
+        }
+      }
+    });
+    if (exitCode != 0) {
+      throw new IOException(String.format("Streaming %s to %s exited with code %d",
+          movieFilePath, archiveHostName, exitCode));
+    }
+    return new ArchivedFile(backupFile, size[0], digest == null ? null : DigestUtil.toHex(digest));
+  }
+
+  /**
+   * Hashes the backup on the archive host with the matching coreutils tool, e.g.
+   * <code>sha256sum</code> for <code>SHA-256</code>.
+   */
+  @Override
+  public String checksum(String backupFile)
+      throws IOException, InterruptedException, TimeoutException {
+    String tool = checksumAlgorithm.toLowerCase(Locale.ROOT).replace("-", "") + "sum";
+    String output = ProcessUtil.runForOutput(
+        ssh(tool + " " + ProcessUtil.shellQuote(backupFile)), transferTimeout);
+    return output.trim().split("\\s+")[0];
+  }
+
+  /**
+   * Streams the backup out of <code>cat</code> on the archive host into a file next to the
+   * original, hashing and throttling it like {@link #archive} does, and then renames it over the
+   * sample.
+   */
+  @Override
+  public void restore(String backupFile, String originalFilePath, String expectedChecksum)
+      throws IOException, InterruptedException, TimeoutException {
+    Path original = Path.of(originalFilePath);
+    Path partial = original.resolveSibling(original.getFileName() + PARTIAL_SUFFIX);
+    MessageDigest digest = expectedChecksum == null ? null
+        : DigestUtil.newDigest(checksumAlgorithm);
+    ProcessUtil.runForOutput(ssh("cat " + ProcessUtil.shellQuote(backupFile)),
+        transferTimeout, stdout -> {
+          byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+          try (OutputStream out = Files.newOutputStream(partial)) {
+            int read;
+            while ((read = stdout.read(buffer)) >= 0) {
+              transferThrottle.acquire(Direction.READ, read);
+              if (digest != null) {
+                digest.update(buffer, 0, read);
+              }
+              transferThrottle.acquire(Direction.WRITE, read);
+              out.write(buffer, 0, read);
+            }
+          }
+        });
+    if (digest != null) {
+      String checksum = DigestUtil.toHex(digest);
+      if (!expectedChecksum.equalsIgnoreCase(checksum)) {
+        Files.deleteIfExists(partial);
+        throw new IOException(String.format("Checksum mismatch while restoring %s: expected %s, "
+            + "got %s", backupFile, expectedChecksum, checksum));
+      }
+    }
+    Files.move(partial, original, StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private List<String> ssh(String remoteCommand) {
+    return List.of("ssh", "-i", sshKeyFilePath, archiveHostUser + "@" + archiveHostName,
+        remoteCommand);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service.impl;
+
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.PolicyCandidate;
+import com.sohardh.plexarchiver.service.ArchivePolicy;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * Scores a candidate as the weighted sum of
+ * <ul>
+ * <li>years since it was last viewed,</li>
+ * <li>its size in GiB,</li>
+ * <li>decades since its release,</li>
+ * <li>how rarely it was viewed, 1 for a single view and approaching 0 for many,</li>
+ * <li>the used share of its filesystem.</li>
+ * </ul>
+ * The weights are <code>archive.policy.weight.*</code>.
+ */
+@Service
+@ConditionalOnProperty(name = "archive.policy", havingValue = "weighted", matchIfMissing = true)
+public class WeightedArchivePolicy implements ArchivePolicy {
+
+  private static final double DAYS_PER_YEAR = 365.25;
+  private static final double BYTES_PER_GIB = 1024d * 1024 * 1024;
+  @Value("${archive.policy.weight.age}")
+  private double ageWeight;
+  @Value("${archive.policy.weight.size}")
+  private double sizeWeight;
+  @Value("${archive.policy.weight.release}")
+  private double releaseWeight;
+  @Value("${archive.policy.weight.views}")
+  private double viewsWeight;
+  @Value("${archive.policy.weight.pressure}")
+  private double pressureWeight;
+
+  @Override
+  public double score(PolicyCandidate candidate) {
+    Movie movie = candidate.getMovie();
+    return ageWeight * yearsSinceLastView(movie)
+        + sizeWeight * candidate.getSize() / BYTES_PER_GIB
+        + releaseWeight * yearsSinceRelease(movie) / 10
+        + viewsWeight / Math.max(1, movie.getViewCount())
+        + pressureWeight * candidate.getVolumeUsage();
+  }
+
+  @Override
+  public boolean usesVolumeUsage() {
+    return pressureWeight != 0;
+  }
+
+  private static double yearsSinceLastView(Movie movie) {
+    if (movie.getLastViewedAt() == 0) {
+      return 0;
+    }
+    return (Instant.now().getEpochSecond() - movie.getLastViewedAt()) / 86400d / DAYS_PER_YEAR;
+  }
+
+  private static double yearsSinceRelease(Movie movie) {
+    LocalDate released = movie.getOriginallyAvailableAt();
+    if (released == null) {
+      return 0;
+    }
+    return Math.max(0, ChronoUnit.DAYS.between(released, LocalDate.now()) / DAYS_PER_YEAR);
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public final class ArchivePathUtil {
+
+  private ArchivePathUtil() {
+  }
+
+  /**
+   * The path of a movie file relative to <code>movies.path</code>, under which transports store
+   * its backup. Two different movie files never map to the same backup, so an existing backup at
+   * that path always belongs to an earlier copy of the same file.
+   *
+   * @throws IOException when the file is not below <code>movies.path</code>
+   */
+  public static Path relativeBackupPath(String moviesPath, String movieFilePath)
+      throws IOException {
+    Path root = Path.of(moviesPath).toAbsolutePath().normalize();
+    Path file = Path.of(movieFilePath).toAbsolutePath().normalize();
+    if (!file.startsWith(root) || file.equals(root)) {
+      throw new IOException(String.format("%s is not below movies.path %s, refusing to archive "
+          + "it.", movieFilePath, moviesPath));
+    }
+    return root.relativize(file);
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.util;
+
+import com.sohardh.plexarchiver.dto.Movie;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Candidates keyed by guid, so that matching them against the archived movies takes one hash
+ * lookup per movie instead of a scan over all candidates. If plex reports a guid more than once,
+ * the first movie wins.
+ */
+public class CandidateIndex {
+
+  private final Map<String, Movie> candidatesByGuid;
+
+  public CandidateIndex(Collection<Movie> candidates) {
+    candidatesByGuid = new LinkedHashMap<>((int) (candidates.size() / 0.75f) + 1);
+    candidates.forEach(movie -> candidatesByGuid.putIfAbsent(movie.getGuid(), movie));
+  }
+
+  public Set<String> guids() {
+    return candidatesByGuid.keySet();
+  }
+
+  public Optional<Movie> get(String guid) {
+    return Optional.ofNullable(candidatesByGuid.get(guid));
+  }
+
+  public int size() {
+    return candidatesByGuid.size();
+  }
+
+  /**
+   * Splits the candidates against the guids that are already archived, in time linear to both.
+   * Only the archived guids among the candidates have to be passed.
+   */
+  public Diff diff(Collection<String> archivedGuids) {
+    Set<String> archived = archivedGuids instanceof Set<String> set ? set
+        : new HashSet<>(archivedGuids);
+    List<Movie> newMovies = new ArrayList<>();
+    List<Movie> alreadyArchived = new ArrayList<>();
+    candidatesByGuid.forEach((guid, movie) -> {
+      if (archived.contains(guid)) {
+        alreadyArchived.add(movie);
+      } else {
+        newMovies.add(movie);
+      }
+    });
+    return new Diff(newMovies, alreadyArchived);
+  }
+
+  @Getter
+  @AllArgsConstructor
+  public static class Diff {
+
+    /**
+     * Candidates that are not archived yet.
+     */
+    private List<Movie> newMovies;
+    /**
+     * Candidates that are archived already.
+     */
+    private List<Movie> alreadyArchived;
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.util;
+
+/**
+ * Selects which queued movies a node of the cluster claims.
+ */
+public enum ClusterPartition {
+  /**
+   * Claims any queued movie. Fits nodes that all see every library path.
+   */
+  ANY,
+  /**
+   * Claims the movies whose guid hash falls into the node's share, given by
+   * <code>archive.cluster.node-index</code> out of <code>archive.cluster.node-count</code>.
+   */
+  GUID_HASH,
+  /**
+   * Claims the movies whose files lie below one of <code>archive.cluster.local-paths</code>, so
+   * every node only reads the disks attached to it.
+   */
+  VOLUME
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Cuts a stream into chunks whose boundaries depend on the content instead of the offset, so data
+ * shared by two files ends up in identical chunks even when it sits at different offsets.
+ * <p>
+ * Boundaries are found with a gear hash: every byte shifts the hash left by one and adds the
+ * byte's random gear value, and a chunk ends where the top bits of the hash are all zero. Chunks
+ * are between a quarter and four times the average size, and no hash is computed over the first
+ * quarter, which is never a boundary. The gear table is generated from a fixed seed, so
+ * boundaries stay the same across runs and versions.
+ * <p>
+ * The bytes read ahead are kept in a ring buffer of the maximum chunk size, so taking a chunk
+ * never moves the bytes after it.
+ */
+public final class ContentDefinedChunker {
+
+  private static final long[] GEAR = gearTable();
+  private final InputStream in;
+  private final int minSize;
+  private final int maxSize;
+  private final long mask;
+  private final byte[] window;
+  private final int windowMask;
+  private int start;
+  private int available;
+  private boolean endOfStream;
+
+  /**
+   * @param averageSize expected chunk size in bytes, rounded down to a power of two.
+   */
+  public ContentDefinedChunker(InputStream in, int averageSize) {
+    int average = Integer.highestOneBit(Math.max(averageSize, 64));
+    this.in = in;
+    this.minSize = average / 4;
+    this.maxSize = average * 4;
+    this.mask = -1L << (Long.SIZE - Integer.numberOfTrailingZeros(average));
+    this.window = new byte[maxSize];
+    this.windowMask = maxSize - 1;
+  }
+
+  /**
+   * Reads the next chunk, or returns null once the stream is exhausted.
+   */
+  public byte[] next() throws IOException {
+    fill();
+    if (available == 0) {
+      return null;
+    }
+    int length = boundary();
+    byte[] chunk = new byte[length];
+    int head = Math.min(length, maxSize - start);
+    System.arraycopy(window, start, chunk, 0, head);
+    System.arraycopy(window, 0, chunk, head, length - head);
+    start = (start + length) & windowMask;
+    available -= length;
+    return chunk;
+  }
+
+  private int boundary() {
+    if (available <= minSize) {
+      return available;
+    }
+    long hash = 0;
+    int i = minSize;
+    for (int wrap = Math.min(available, maxSize - start); i < wrap; i++) {
+      hash = (hash << 1) + GEAR[window[start + i] & 0xff];
+      if ((hash & mask) == 0) {
+        return i + 1;
+      }
+    }
+    for (; i < available; i++) {
+      hash = (hash << 1) + GEAR[window[start + i - maxSize] & 0xff];
+      if ((hash & mask) == 0) {
+        return i + 1;
+      }
+    }
+    return available;
+  }
+
+  private void fill() throws IOException {
+    while (!endOfStream && available < maxSize) {
+      int end = (start + available) & windowMask;
+      int read = in.read(window, end, end < start ? start - end : maxSize - end);
+      if (read < 0) {
+        endOfStream = true;
+      } else {
+        available += read;
+      }
+    }
+  }
+
+  /**
+   * SplitMix64 from a fixed seed, spelled out so the table never depends on the JDK.
+   */
+  private static long[] gearTable() {
+    long[] table = new long[256];
+    long state = 0x5DEECE66DL;
+    for (int i = 0; i < table.length; i++) {
+      state += 0x9E3779B97F4A7C15L;
+      long z = state;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      table[i] = z ^ (z >>> 31);
+    }
+    return table;
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.util;
+
+/**
+ * Selects how the archive workflows of new movies are run.
+ */
+public enum ExecutionMode {
+  /**
+   * Runs each stage for a whole batch at once: all copies on the transfer pools, then all db
+   * writes, then all sample swaps.
+   */
+  PLATFORM,
+  /**
+   * Runs the whole workflow of every movie on its own virtual thread, limited by one permit pool
+   * per resource. Needs Java 21, otherwise a bounded platform pool is used instead.
+   */
+  VIRTUAL
+}
@@ -23,26 +23,153 @@ import static org.apache.logging.log4j.util.Strings.isEmpty;
 
 import com.sohardh.plexarchiver.dto.Movie;
 import com.sohardh.plexarchiver.dto.Movie.MovieBuilder;
+import com.sohardh.plexarchiver.dto.MoviePart;
+import com.sohardh.plexarchiver.dto.PlexSection;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
 import org.slf4j.Logger;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.codec.xml.XmlEventDecoder;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import reactor.core.publisher.Flux;
 
 public final class PlexDataParserUtil {
 
+  private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+  private static final XmlEventDecoder XML_EVENT_DECODER = new XmlEventDecoder();
+  private static final ResolvableType XML_EVENT_TYPE = ResolvableType.forClass(XMLEvent.class);
+
   private PlexDataParserUtil() {
   }
 
+  /**
+   * Parses the response with the given {@link ParserMode}. In {@link ParserMode#COMPARE} both
+   * parsers run and any difference between their results is logged.
+   */
+  public static List<Movie> parsePlexResponse(String response, Logger log, ParserMode mode)
+      throws ParserConfigurationException, IOException, SAXException, XMLStreamException {
+    if (mode == ParserMode.DOM) {
+      return parsePlexResponse(response, log);
+    }
+    final List<Movie> movies = new ArrayList<>();
+    parsePlexResponse(new StringReader(response), log, movies::add);
+    if (mode == ParserMode.COMPARE) {
+      List<Movie> domMovies = parsePlexResponse(response, log);
+      if (!domMovies.equals(movies)) {
+        log.warn("StAX and DOM parsers disagree. StAX found {} movies, DOM found {} movies.",
+            movies.size(), domMovies.size());
+      }
+    }
+    return movies;
+  }
+
+  /**
+   * Streams the response and hands every movie to the consumer as soon as its
+   * <code>Video</code> element is closed, without holding the whole document in memory.
+   */
+  public static void parsePlexResponse(InputStream response, Logger log, Consumer<Movie> consumer)
+      throws XMLStreamException {
+    parse(XML_INPUT_FACTORY.createXMLEventReader(response), log, consumer);
+  }
+
+  public static void parsePlexResponse(Reader response, Logger log, Consumer<Movie> consumer)
+      throws XMLStreamException {
+    parse(XML_INPUT_FACTORY.createXMLEventReader(response), log, consumer);
+  }
+
+  /**
+   * Non-blocking variant of {@link #parsePlexResponse(InputStream, Logger, Consumer)}. The body
+   * chunks are fed to the async Aalto parser as they arrive and released once consumed, so
+   * neither the raw response nor the full movie list is ever held in memory.
+   */
+  public static Flux<Movie> parsePlexResponse(Flux<DataBuffer> response, Logger log) {
+    return Flux.defer(() -> {
+      PlexVideoEventHandler handler = new PlexVideoEventHandler(log);
+      return XML_EVENT_DECODER.decode(response, XML_EVENT_TYPE, null, null)
+          .handle((event, sink) -> handler.handle(event).ifPresent(sink::next));
+    });
+  }
+
+  /**
+   * Reads the movie sections from a <code>/library/sections</code> response.
+   */
+  public static List<PlexSection> parseMovieSections(String response) throws XMLStreamException {
+    final List<PlexSection> sections = new ArrayList<>();
+    XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(response));
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT
+            && reader.getLocalName().equals("Directory")
+            && "movie".equals(reader.getAttributeValue(null, "type"))) {
+          sections.add(new PlexSection(reader.getAttributeValue(null, "key"),
+              toLong(reader.getAttributeValue(null, "updatedAt"))));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return sections;
+  }
+
+  /**
+   * Reads the total number of items from a paged plex response. Falls back to the number of items
+   * in the response when plex did not report a total.
+   */
+  public static int parseTotalSize(String response) throws XMLStreamException {
+    XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(response));
+    try {
+      reader.nextTag();
+      String totalSize = reader.getAttributeValue(null, "totalSize");
+      if (isEmpty(totalSize)) {
+        totalSize = reader.getAttributeValue(null, "size");
+      }
+      return isEmpty(totalSize) ? 0 : Integer.parseInt(totalSize);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static void parse(XMLEventReader reader, Logger log, Consumer<Movie> consumer)
+      throws XMLStreamException {
+    PlexVideoEventHandler handler = new PlexVideoEventHandler(log);
+    try {
+      while (reader.hasNext()) {
+        handler.handle(reader.nextEvent()).ifPresent(consumer);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static XMLInputFactory createXmlInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
+
   public static List<Movie> parsePlexResponse(String moviesWatchedMoreThanOneYearAgo, Logger log)
       throws ParserConfigurationException, IOException, SAXException {
     final List<Movie> movies = new ArrayList<>();
@@ -61,17 +188,17 @@ public final class PlexDataParserUtil {
       NamedNodeMap attributes = videoNode.getAttributes();
       MovieBuilder movieBuilder = Movie.builder().title(getTextContent(attributes, "title"))
           .thumb(getTextContent(attributes, "thumb")).guid(getTextContent(attributes, "guid"))
-          .viewCount(getTextContent(attributes, "viewCount"))
-          .addedAt(getTextContent(attributes, "addedAt"))
-          .originallyAvailableAt(getTextContent(attributes, "originallyAvailableAt"))
-          .lastViewedAt(getTextContent(attributes, "lastViewedAt"));
+          .viewCount((int) toLong(getTextContent(attributes, "viewCount")))
+          .addedAt(toLong(getTextContent(attributes, "addedAt")))
+          .originallyAvailableAt(toDate(getTextContent(attributes, "originallyAvailableAt")))
+          .lastViewedAt(toLong(getTextContent(attributes, "lastViewedAt")));
 
       NodeList fileNodes = videoNode.getChildNodes();
       if (fileNodes.getLength() == 0) {
         log.warn("No file for movie {} found! Skipping it.", movieBuilder.build().getTitle());
         continue;
       }
-      List<String> files = new ArrayList<>();
+      List<MoviePart> movieParts = new ArrayList<>();
       for (int j = 0; j < fileNodes.getLength(); j++) {
 
         Node media = fileNodes.item(j);
@@ -87,15 +214,50 @@ public final class PlexDataParserUtil {
             continue;
           }
           NamedNodeMap partAttributes = part.getAttributes();
-          files.add(getTextContent(partAttributes, "file"));
+          movieParts.add(MoviePart.builder()
+              .file(getTextContent(partAttributes, "file"))
+              .id(toLong(getTextContent(partAttributes, "id")))
+              .size(toLong(getTextContent(partAttributes, "size")))
+              .duration(toLong(getTextContent(partAttributes, "duration")))
+              .build());
         }
       }
-      movieBuilder.files(files.stream().filter((file -> !isEmpty(file))).toList());
+      List<MoviePart> fileParts = movieParts.stream().filter(part -> !isEmpty(part.getFile()))
+          .toList();
+      movieBuilder.parts(fileParts);
       movies.add(movieBuilder.build());
     }
     return movies;
   }
 
+  /**
+   * Numeric plex attribute, or 0 when it is missing or not a number.
+   */
+  static long toLong(String value) {
+    if (isEmpty(value)) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Date plex attribute like <code>2001-12-19</code>, or null when it is missing or malformed.
+   */
+  static LocalDate toDate(String value) {
+    if (isEmpty(value)) {
+      return null;
+    }
+    try {
+      return LocalDate.parse(value);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
   private static String getTextContent(NamedNodeMap attributes, String key) {
     Node namedItem = attributes.getNamedItem(key);
     if (namedItem == null) {
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.util;
+
+import static org.apache.logging.log4j.util.Strings.isEmpty;
+
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.Movie.MovieBuilder;
+import com.sohardh.plexarchiver.dto.MoviePart;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import javax.xml.namespace.QName;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import org.slf4j.Logger;
+
+/**
+ * Stateful StAX event handler that turns the <code>Video/Media/Part</code> elements of a plex
+ * library response into {@link Movie}s, one video at a time.
+ * <p>
+ * It mirrors the DOM walk in {@link PlexDataParserUtil#parsePlexResponse(String, Logger)}: only
+ * <code>Video</code> elements directly under the root, <code>Media</code> directly under a video
+ * and <code>Part</code> directly under a media are considered. An instance must not be shared
+ * between responses.
+ */
+public class PlexVideoEventHandler {
+
+  private static final int VIDEO_DEPTH = 2;
+  private static final int MEDIA_DEPTH = 3;
+  private static final int PART_DEPTH = 4;
+  private static final QName TITLE = new QName("title");
+  private static final QName THUMB = new QName("thumb");
+  private static final QName GUID = new QName("guid");
+  private static final QName VIEW_COUNT = new QName("viewCount");
+  private static final QName ADDED_AT = new QName("addedAt");
+  private static final QName ORIGINALLY_AVAILABLE_AT = new QName("originallyAvailableAt");
+  private static final QName LAST_VIEWED_AT = new QName("lastViewedAt");
+  private static final QName FILE = new QName("file");
+  private static final QName ID = new QName("id");
+  private static final QName SIZE = new QName("size");
+  private static final QName DURATION = new QName("duration");
+
+  private final Logger log;
+  private int depth;
+  private MovieBuilder movieBuilder;
+  private List<MoviePart> parts;
+  private boolean videoHasChildren;
+  private boolean inMedia;
+
+  public PlexVideoEventHandler(Logger log) {
+    this.log = log;
+  }
+
+  /**
+   * Feeds the next event of the response.
+   *
+   * @return the movie completed by this event, if any.
+   */
+  public Optional<Movie> handle(XMLEvent event) {
+    if (event.isStartElement()) {
+      depth++;
+      startElement(event.asStartElement());
+      return Optional.empty();
+    }
+    if (event.isEndElement()) {
+      Optional<Movie> movie = endElement();
+      depth--;
+      return movie;
+    }
+    if (movieBuilder != null && depth == VIDEO_DEPTH && (event.isCharacters()
+        || event.getEventType() == XMLEvent.COMMENT
+        || event.getEventType() == XMLEvent.PROCESSING_INSTRUCTION)) {
+      videoHasChildren = true;
+    }
+    return Optional.empty();
+  }
+
+  private void startElement(StartElement element) {
+    String name = element.getName().getLocalPart();
+    if (depth == VIDEO_DEPTH) {
+      if (name.equals("Video")) {
+        movieBuilder = Movie.builder().title(getAttribute(element, TITLE))
+            .thumb(getAttribute(element, THUMB)).guid(getAttribute(element, GUID))
+            .viewCount((int) PlexDataParserUtil.toLong(getAttribute(element, VIEW_COUNT)))
+            .addedAt(PlexDataParserUtil.toLong(getAttribute(element, ADDED_AT)))
+            .originallyAvailableAt(
+                PlexDataParserUtil.toDate(getAttribute(element, ORIGINALLY_AVAILABLE_AT)))
+            .lastViewedAt(PlexDataParserUtil.toLong(getAttribute(element, LAST_VIEWED_AT)));
+        parts = new ArrayList<>();
+        videoHasChildren = false;
+      }
+      return;
+    }
+    if (movieBuilder == null) {
+      return;
+    }
+    if (depth == MEDIA_DEPTH) {
+      videoHasChildren = true;
+      inMedia = name.equals("Media");
+    } else if (depth == PART_DEPTH && inMedia && name.equals("Part")) {
+      parts.add(MoviePart.builder()
+          .file(getAttribute(element, FILE))
+          .id(PlexDataParserUtil.toLong(getAttribute(element, ID)))
+          .size(PlexDataParserUtil.toLong(getAttribute(element, SIZE)))
+          .duration(PlexDataParserUtil.toLong(getAttribute(element, DURATION)))
+          .build());
+    }
+  }
+
+  private Optional<Movie> endElement() {
+    if (depth == MEDIA_DEPTH) {
+      inMedia = false;
+      return Optional.empty();
+    }
+    if (depth != VIDEO_DEPTH || movieBuilder == null) {
+      return Optional.empty();
+    }
+    MovieBuilder builder = movieBuilder;
+    movieBuilder = null;
+    if (!videoHasChildren) {
+      log.warn("No file for movie {} found! Skipping it.", builder.build().getTitle());
+      return Optional.empty();
+    }
+    List<MoviePart> fileParts = parts.stream().filter(part -> !isEmpty(part.getFile())).toList();
+    builder.parts(fileParts);
+    return Optional.of(builder.build());
+  }
+
+  private static String getAttribute(StartElement element, QName name) {
+    Attribute attribute = element.getAttributeByName(name);
+    if (attribute == null) {
+      return null;
+    }
+    return attribute.getValue();
+  }
+}
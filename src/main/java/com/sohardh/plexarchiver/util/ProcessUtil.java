@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public final class ProcessUtil {
+
+  private static final Duration DESTROY_GRACE_PERIOD = Duration.ofSeconds(10);
+
+  private ProcessUtil() {
+  }
+
+  /**
+   * Runs the command and waits for it to exit. The child is killed when it does not exit within
+   * the timeout or when the calling thread is interrupted.
+   *
+   * @return the exit code of the command.
+   */
+  public static int run(List<String> command, Duration timeout)
+      throws IOException, InterruptedException, TimeoutException {
+    Process process = new ProcessBuilder(command)
+        .redirectOutput(Redirect.DISCARD)
+        .redirectError(Redirect.INHERIT)
+        .start();
+    try {
+      if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new TimeoutException(String.format("%s did not exit within %s", command, timeout));
+      }
+      return process.exitValue();
+    } finally {
+      if (process.isAlive()) {
+        destroy(process);
+      }
+    }
+  }
+
+  /**
+   * Runs the command and lets the writer feed its standard input. The child is killed when it has
+   * not exited within the timeout, which also makes a stalled write fail.
+   *
+   * @return the exit code of the command.
+   */
+  public static int run(List<String> command, Duration timeout, StdinWriter writer)
+      throws IOException, InterruptedException, TimeoutException {
+    Process process = new ProcessBuilder(command)
+        .redirectOutput(Redirect.DISCARD)
+        .redirectError(Redirect.INHERIT)
+        .start();
+    CompletableFuture<Void> watchdog = CompletableFuture.runAsync(process::destroyForcibly,
+        CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS));
+    try {
+      try (OutputStream stdin = process.getOutputStream()) {
+        writer.write(stdin);
+      }
+      if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new TimeoutException(String.format("%s did not exit within %s", command, timeout));
+      }
+      return process.exitValue();
+    } finally {
+      watchdog.cancel(false);
+      if (process.isAlive()) {
+        destroy(process);
+      }
+    }
+  }
+
+  /**
+   * Runs the command and lets the reader consume its standard output. The child is killed when it
+   * has not exited within the timeout, which also makes a stalled read fail.
+   */
+  public static void runForOutput(List<String> command, Duration timeout, StdoutReader reader)
+      throws IOException, InterruptedException, TimeoutException {
+    Process process = new ProcessBuilder(command)
+        .redirectError(Redirect.INHERIT)
+        .start();
+    process.getOutputStream().close();
+    CompletableFuture<Void> watchdog = CompletableFuture.runAsync(process::destroyForcibly,
+        CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS));
+    try {
+      try (InputStream stdout = process.getInputStream()) {
+        reader.read(stdout);
+      }
+      if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new TimeoutException(String.format("%s did not exit within %s", command, timeout));
+      }
+      if (process.exitValue() != 0) {
+        throw new IOException(
+            String.format("%s exited with code %d", command, process.exitValue()));
+      }
+    } finally {
+      watchdog.cancel(false);
+      if (process.isAlive()) {
+        destroy(process);
+      }
+    }
+  }
+
+  /**
+   * Runs the command and returns what it printed on its standard output.
+   */
+  public static String runForOutput(List<String> command, Duration timeout)
+      throws IOException, InterruptedException, TimeoutException {
+    Process process = new ProcessBuilder(command)
+        .redirectError(Redirect.INHERIT)
+        .start();
+    CompletableFuture<byte[]> output = CompletableFuture.supplyAsync(() -> {
+      try (InputStream stdout = process.getInputStream()) {
+        return stdout.readAllBytes();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    try {
+      if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new TimeoutException(String.format("%s did not exit within %s", command, timeout));
+      }
+      if (process.exitValue() != 0) {
+        throw new IOException(
+            String.format("%s exited with code %d", command, process.exitValue()));
+      }
+      return new String(output.join(), StandardCharsets.UTF_8);
+    } finally {
+      if (process.isAlive()) {
+        destroy(process);
+      }
+    }
+  }
+
+  /**
+   * Like {@link #run(List, Duration)}, but fails when the command exits with a non zero code.
+   */
+  public static void runChecked(List<String> command, Duration timeout)
+      throws IOException, InterruptedException, TimeoutException {
+    int exitCode = run(command, timeout);
+    if (exitCode != 0) {
+      throw new IOException(String.format("%s exited with code %d", command, exitCode));
+    }
+  }
+
+  /**
+   * Quotes the argument for a POSIX shell, e.g. for a command run on a remote host over ssh.
+   */
+  public static String shellQuote(String argument) {
+    return "'" + argument.replace("'", "'\\''") + "'";
+  }
+
+  private static void destroy(Process process) throws InterruptedException {
+    process.destroy();
+    if (!process.waitFor(DESTROY_GRACE_PERIOD.toMillis(), TimeUnit.MILLISECONDS)) {
+      process.destroyForcibly();
+    }
+  }
+
+  @FunctionalInterface
+  public interface StdinWriter {
+
+    void write(OutputStream stdin) throws IOException;
+  }
+
+  @FunctionalInterface
+  public interface StdoutReader {
+
+    void read(InputStream stdout) throws IOException;
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.util;
+
+/**
+ * Selects how a sample is put in place of an archived original.
+ */
+public enum SampleLinkMode {
+  /**
+   * Tries a hardlink, then a reflink, then a copy.
+   */
+  AUTO,
+  /**
+   * Hardlinks the sample, so every swapped file shares its inode. Falls back to a copy when the
+   * original is on another filesystem.
+   */
+  HARDLINK,
+  /**
+   * Clones the sample with <code>cp --reflink=always</code>, which shares its blocks on
+   * filesystems like btrfs or xfs. Falls back to a copy when that is not supported.
+   */
+  REFLINK,
+  /**
+   * Copies the sample.
+   */
+  COPY
+}
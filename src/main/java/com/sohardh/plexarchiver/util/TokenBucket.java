@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter over bytes that holds at most one second worth of tokens. A caller may take more
+ * tokens than the bucket holds and then sleeps until the debt is paid, so blocks larger than one
+ * second of rate still pass and concurrent callers queue up behind each other.
+ */
+public final class TokenBucket {
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private long rate; // bytes per second, 0 for unlimited
+  private double tokens;
+  private long refilledAt = System.nanoTime();
+
+  public synchronized void setRate(long bytesPerSecond) {
+    if (bytesPerSecond == rate) {
+      return;
+    }
+    refill(System.nanoTime());
+    rate = bytesPerSecond;
+    tokens = Math.min(tokens, rate);
+  }
+
+  /**
+   * Takes the tokens, sleeping while the bucket is in debt.
+   *
+   * @return the nanoseconds slept.
+   */
+  public long acquire(long bytes) throws InterruptedException {
+    long wait;
+    synchronized (this) {
+      if (rate <= 0) {
+        return 0;
+      }
+      refill(System.nanoTime());
+      tokens -= bytes;
+      wait = tokens >= 0 ? 0 : (long) (-tokens * NANOS_PER_SECOND / rate);
+    }
+    TimeUnit.NANOSECONDS.sleep(wait);
+    return wait;
+  }
+
+  private void refill(long now) {
+    if (rate > 0) {
+      tokens = Math.min(rate, tokens + (now - refilledAt) * rate / NANOS_PER_SECOND);
+    }
+    refilledAt = now;
+  }
+}
@@ -0,0 +1,2 @@
+-- Last updatedAt plex reported for a section, to skip unchanged sections.
+ALTER TABLE pa.section_checkpoint ADD COLUMN section_updated_at bigint;
@@ -0,0 +1,3 @@
+-- Archive state of every file. Files archived before are done.
+ALTER TABLE pa.movie_file ADD COLUMN state varchar(16) NOT NULL DEFAULT 'DONE';
+CREATE INDEX movie_file_state_idx ON pa.movie_file (state);
@@ -0,0 +1,12 @@
+-- Work queue shared by the instances of a cluster.
+CREATE TABLE pa.archive_work (
+    guid varchar(255) PRIMARY KEY,
+    guid_hash integer NOT NULL,
+    source_dir varchar(4096),
+    status varchar(255),
+    owner varchar(255),
+    attempts integer NOT NULL,
+    queued_at timestamp(6) with time zone,
+    claimed_at timestamp(6) with time zone,
+    heartbeat_at timestamp(6) with time zone);
+CREATE INDEX archive_work_status_idx ON pa.archive_work (status, queued_at);
@@ -0,0 +1,18 @@
+-- Tables of the first release. Installs that already have them are baselined at this version by
+-- spring.flyway.baseline-on-migrate, so this only runs on an empty schema.
+CREATE SCHEMA IF NOT EXISTS pa;
+
+CREATE TABLE pa.movies (
+    guid varchar(255) PRIMARY KEY,
+    title varchar(255),
+    view_count varchar(255),
+    added_at varchar(255),
+    originally_available_at varchar(255),
+    last_viewed_at varchar(255),
+    thumb varchar(255));
+
+CREATE TABLE pa.movie_file (
+    movie_file_model_id integer PRIMARY KEY,
+    guid varchar(255) REFERENCES pa.movies (guid),
+    original_file varchar(255),
+    backup_file varchar(255));
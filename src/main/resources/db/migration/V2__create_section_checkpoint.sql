@@ -0,0 +1,6 @@
+-- Per-section checkpoints of the incremental candidate discovery.
+CREATE TABLE pa.section_checkpoint (
+    section_id varchar(255) PRIMARY KEY,
+    last_viewed_cutoff bigint,
+    updated_at_mark bigint,
+    last_full_sync_at bigint);
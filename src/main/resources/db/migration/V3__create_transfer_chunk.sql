@@ -0,0 +1,15 @@
+-- Chunk journal of resumable local copies. Ids come from a pooled sequence, so inserts can be
+-- batched; the increment matches the allocationSize of TransferChunkModel.
+CREATE SEQUENCE pa.transfer_chunk_seq START WITH 1 INCREMENT BY 50;
+CREATE TABLE pa.transfer_chunk (
+    transfer_chunk_id bigint PRIMARY KEY,
+    source_file varchar(255),
+    destination_file varchar(255),
+    source_size bigint,
+    source_modified_at bigint,
+    chunk_index integer,
+    chunk_offset bigint,
+    chunk_length bigint,
+    checksum varchar(255),
+    state varchar(255));
+CREATE INDEX transfer_chunk_source_file_idx ON pa.transfer_chunk (source_file, chunk_index);
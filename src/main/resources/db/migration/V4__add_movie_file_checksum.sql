@@ -0,0 +1,4 @@
+-- Size and content digest of every archived file, checked before the sample swap.
+ALTER TABLE pa.movie_file
+    ADD COLUMN size bigint,
+    ADD COLUMN checksum varchar(255);
@@ -0,0 +1,6 @@
+-- Pooled movie file ids, so inserts can be batched. The increment matches the allocationSize of
+-- MovieFileModel. Hibernate hands out the ids below the value it gets, so the sequence starts one
+-- increment past the ids in use.
+CREATE SEQUENCE pa.movie_file_seq START WITH 1 INCREMENT BY 50;
+SELECT setval('pa.movie_file_seq', coalesce(max(movie_file_model_id), 0) + 50, false)
+FROM pa.movie_file;
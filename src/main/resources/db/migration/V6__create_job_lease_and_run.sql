@@ -0,0 +1,24 @@
+-- Job leases and run history.
+CREATE TABLE pa.job_lease (
+    job_name varchar(255) PRIMARY KEY,
+    owner varchar(255),
+    acquired_at timestamp(6) with time zone,
+    heartbeat_at timestamp(6) with time zone,
+    expires_at timestamp(6) with time zone);
+
+CREATE SEQUENCE pa.job_run_seq START WITH 1 INCREMENT BY 1;
+CREATE TABLE pa.job_run (
+    job_run_id bigint PRIMARY KEY,
+    job_name varchar(255),
+    owner varchar(255),
+    status varchar(255),
+    started_at timestamp(6) with time zone,
+    heartbeat_at timestamp(6) with time zone,
+    ended_at timestamp(6) with time zone,
+    candidates integer,
+    archived_movies integer,
+    archived_files integer,
+    archived_bytes bigint,
+    failed_movies integer,
+    message varchar(2048));
+CREATE INDEX job_run_job_name_idx ON pa.job_run (job_name, status);
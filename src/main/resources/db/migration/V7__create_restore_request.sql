@@ -0,0 +1,17 @@
+-- Restore queue.
+CREATE SEQUENCE pa.restore_request_seq START WITH 1 INCREMENT BY 1;
+CREATE TABLE pa.restore_request (
+    restore_request_id bigint PRIMARY KEY,
+    guid varchar(255),
+    movie_file_model_id integer UNIQUE,
+    size bigint,
+    reason varchar(255),
+    status varchar(255),
+    requested_at timestamp(6) with time zone,
+    started_at timestamp(6) with time zone,
+    finished_at timestamp(6) with time zone,
+    message varchar(2048));
+CREATE INDEX restore_request_status_idx ON pa.restore_request (status);
+
+-- When a movie was restored, so it is released after restore.retention.
+ALTER TABLE pa.movies ADD COLUMN restored_at timestamp(6) with time zone;
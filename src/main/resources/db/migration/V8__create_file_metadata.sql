@@ -0,0 +1,11 @@
+-- File metadata reported by plex, so the library is not stat-ed on every run.
+CREATE TABLE pa.file_metadata (
+    path varchar(4096) PRIMARY KEY,
+    part_id bigint,
+    size bigint,
+    duration bigint,
+    modified_at bigint,
+    file_key varchar(255),
+    checksum varchar(255),
+    stat_at timestamp(6) with time zone,
+    last_seen_at timestamp(6) with time zone);
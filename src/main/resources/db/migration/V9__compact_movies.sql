@@ -0,0 +1,10 @@
+-- Typed movie columns instead of the plex strings.
+ALTER TABLE pa.movies
+    ALTER COLUMN view_count TYPE integer
+        USING coalesce(nullif(view_count, '')::integer, 0),
+    ALTER COLUMN added_at TYPE bigint
+        USING coalesce(nullif(added_at, '')::bigint, 0),
+    ALTER COLUMN last_viewed_at TYPE bigint
+        USING coalesce(nullif(last_viewed_at, '')::bigint, 0),
+    ALTER COLUMN originally_available_at TYPE date
+        USING nullif(originally_available_at, '')::date;
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.io.IOException;
+import javax.sql.DataSource;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Points database tests at one embedded PostgreSQL for the whole test run. Flyway builds its
+ * schema from the migrations, like on a real install.
+ */
+@TestConfiguration(proxyBeanMethods = false)
+public class EmbeddedDatabaseConfig {
+
+  private static EmbeddedPostgres postgres;
+
+  @Bean
+  DataSource dataSource() throws IOException {
+    return start().getPostgresDatabase();
+  }
+
+  private static synchronized EmbeddedPostgres start() throws IOException {
+    if (postgres == null) {
+      postgres = EmbeddedPostgres.start();
+    }
+    return postgres;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.dao.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sohardh.plexarchiver.EmbeddedDatabaseConfig;
+import com.sohardh.plexarchiver.dao.model.ArchiveState;
+import com.sohardh.plexarchiver.dao.model.MovieFileModel;
+import com.sohardh.plexarchiver.dao.model.MovieModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Runs without a test transaction, so the callers' objects are used outside any session like
+ * they are during an archive run, and every write is committed like a write of a run.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = Replace.NONE)
+@Import(EmbeddedDatabaseConfig.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MovieFileRepositoryTest {
+
+  @Autowired
+  private MovieRepository movieRepository;
+  @Autowired
+  private MovieFileRepository movieFileRepository;
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @BeforeEach
+  void setUp() {
+    jdbcTemplate.execute("TRUNCATE pa.movie_file, pa.movies, pa.job_lease CASCADE");
+  }
+
+  @Test
+  void persistAllKeepsTheCallersMovies() {
+    List<MovieModel> movies = new ArrayList<>();
+    List<MovieFileModel> movieFiles = new ArrayList<>();
+    // More files than one JDBC batch, so the files of several batches are handed back.
+    for (int i = 0; i < 120; i++) {
+      var movie = new MovieModel();
+      movie.setGuid("plex://movie/" + i);
+      movie.setTitle("Movie " + i);
+      movie.setLastViewedAt(1550000000L + i);
+      movies.add(movie);
+      var movieFile = new MovieFileModel();
+      movieFile.setMovieModel(movie);
+      movieFile.setOriginalFile("/movies/" + i + ".mkv");
+      movieFile.setState(ArchiveState.PENDING);
+      movieFiles.add(movieFile);
+    }
+    movieRepository.upsertAll(movies);
+
+    movieFileRepository.persistAll(movieFiles);
+
+    for (int i = 0; i < movieFiles.size(); i++) {
+      MovieFileModel movieFile = movieFiles.get(i);
+      assertThat(movieFile.getMovieFileModelId()).isNotNull();
+      assertThat(movieFile.getMovieModel()).isSameAs(movies.get(i));
+      assertThat(movieFile.getMovieModel().getLastViewedAt()).isEqualTo(1550000000L + i);
+    }
+    assertThat(movieFileRepository.findByMovieModelGuidOrderByOriginalFile("plex://movie/7"))
+        .extracting(MovieFileModel::getOriginalFile).containsExactly("/movies/7.mkv");
+  }
+
+  @Test
+  void ownedWritesNeedAnUnexpiredLease() {
+    var movie = new MovieModel();
+    movie.setGuid("plex://movie/1");
+    movieRepository.upsertAll(List.of(movie));
+    var movieFile = new MovieFileModel();
+    movieFile.setMovieModel(movie);
+    movieFile.setOriginalFile("/movies/1.mkv");
+    movieFile.setState(ArchiveState.PENDING);
+    movieFileRepository.persistAll(List.of(movieFile));
+    Integer id = movieFile.getMovieFileModelId();
+    jdbcTemplate.update("INSERT INTO pa.job_lease (job_name, owner, acquired_at, heartbeat_at, "
+        + "expires_at) VALUES ('archive', 'a', now(), now(), now() + interval '1 minute')");
+
+    assertThat(movieFileRepository.updateOwnedState(id, ArchiveState.COPYING, "archive", "b"))
+        .isZero();
+    assertThat(movieFileRepository.updateOwnedState(id, ArchiveState.COPYING, "archive", "a"))
+        .isEqualTo(1);
+
+    jdbcTemplate.update("UPDATE pa.job_lease SET expires_at = now() - interval '1 second'");
+
+    assertThat(movieFileRepository.updateOwnedState(id, ArchiveState.VERIFIED, "archive", "a"))
+        .isZero();
+    assertThat(movieFileRepository.updateOwnedStateByMovieGuidIn(Set.of("plex://movie/1"),
+        ArchiveState.DONE, "archive", "a")).isZero();
+    assertThat(movieFileRepository.findByMovieModelGuidOrderByOriginalFile("plex://movie/1"))
+        .extracting(MovieFileModel::getState).containsExactly(ArchiveState.COPYING);
+  }
+}
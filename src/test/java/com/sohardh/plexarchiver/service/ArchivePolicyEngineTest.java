@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.MoviePart;
+import com.sohardh.plexarchiver.dto.PolicyCandidate;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Selection against the filesystem of a temporary directory. Movies are reported a gigabyte
+ * each, so the free space target is not thrown off by other writes to the same disk.
+ */
+class ArchivePolicyEngineTest {
+
+  private static final long MOVIE_SIZE = 1L << 30;
+  @TempDir
+  private Path root;
+  private ArchivePolicyEngine archivePolicyEngine;
+
+  @BeforeEach
+  void setUp() {
+    ArchivePolicy archivePolicy = mock(ArchivePolicy.class);
+    when(archivePolicy.score(any())).thenAnswer(invocation -> Double.parseDouble(
+        invocation.<PolicyCandidate>getArgument(0).getMovie().getGuid()));
+    when(archivePolicy.usesVolumeUsage()).thenReturn(false);
+    FileMetadataCache fileMetadataCache = mock(FileMetadataCache.class);
+    when(fileMetadataCache.size(any())).thenReturn(MOVIE_SIZE);
+    archivePolicyEngine = new ArchivePolicyEngine(archivePolicy, fileMetadataCache);
+  }
+
+  @Test
+  void candidatesAreTakenHighestScoreFirstAboveTheMinimum() throws IOException {
+    ReflectionTestUtils.setField(archivePolicyEngine, "minScore", 1.0);
+
+    List<Movie> selected = archivePolicyEngine.start()
+        .select(List.of(movie("1"), movie("0.5"), movie("3"), movie("2")));
+
+    assertThat(selected).extracting(Movie::getGuid).containsExactly("3", "2", "1");
+  }
+
+  @Test
+  void capacityBoundSelectionStopsOnceTheTargetIsReached() throws IOException {
+    freeSpaceTargetAbove(2.5 * MOVIE_SIZE);
+    ArchivePolicyEngine.Selection selection = archivePolicyEngine.start();
+
+    List<Movie> selected = selection.select(
+        List.of(movie("1"), movie("4"), movie("2"), movie("3"), movie("0.5")));
+
+    assertThat(selection.isCapacityBound()).isTrue();
+    assertThat(selected).extracting(Movie::getGuid).containsExactly("4", "3", "2");
+  }
+
+  @Test
+  void capacityIsCountedAcrossTheSelectionsOfARun() throws IOException {
+    freeSpaceTargetAbove(1.5 * MOVIE_SIZE);
+    ArchivePolicyEngine.Selection selection = archivePolicyEngine.start();
+
+    assertThat(selection.select(List.of(movie("1")))).hasSize(1);
+    assertThat(selection.select(List.of(movie("2"), movie("3")))).extracting(Movie::getGuid)
+        .containsExactly("3");
+    assertThat(archivePolicyEngine.start().select(List.of(movie("2")))).hasSize(1);
+  }
+
+  @Test
+  void nothingIsSelectedOnceTheTargetIsMet() throws IOException {
+    freeSpaceTargetAbove(-MOVIE_SIZE);
+
+    assertThat(archivePolicyEngine.start().select(List.of(movie("1"), movie("2")))).isEmpty();
+  }
+
+  @Test
+  void capacityBoundSelectionDropsMoviesWithoutFiles() throws IOException {
+    freeSpaceTargetAbove(2.5 * MOVIE_SIZE);
+
+    List<Movie> selected = archivePolicyEngine.start()
+        .select(List.of(Movie.builder().guid("2").build(), movie("1")));
+
+    assertThat(selected).extracting(Movie::getGuid).containsExactly("1");
+  }
+
+  /**
+   * Sets the free space target so that the given number of bytes has to be freed on the
+   * filesystem of the temporary directory.
+   */
+  private void freeSpaceTargetAbove(double bytes) throws IOException {
+    FileStore store = Files.getFileStore(root);
+    double target = (store.getUsableSpace() + bytes) * 100 / store.getTotalSpace();
+    ReflectionTestUtils.setField(archivePolicyEngine, "freeSpaceTarget", target);
+  }
+
+  /**
+   * A movie in its own directory, scored by its guid.
+   */
+  private Movie movie(String score) throws IOException {
+    Path directory = Files.createDirectories(root.resolve("movie-" + score));
+    return Movie.builder().guid(score).parts(List.of(MoviePart.builder()
+        .file(directory.resolve("movie.mkv").toString()).build())).build();
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.sohardh.plexarchiver.dao.model.SectionCheckpointModel;
+import com.sohardh.plexarchiver.dao.repository.SectionCheckpointRepository;
+import com.sohardh.plexarchiver.dto.CandidateDiscovery;
+import com.sohardh.plexarchiver.dto.PlexSection;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+class CandidateDiscoveryServiceTest {
+
+  private static final long SECTION_UPDATED_AT = 1_700_000_000L;
+  private final List<SectionCheckpointModel> stored = new ArrayList<>();
+  private SectionCheckpointRepository sectionCheckpointRepository;
+  private CandidateDiscoveryService service;
+  private long now;
+
+  @BeforeEach
+  void setUp() {
+    PlexFetchDataService plexFetchDataService = mock(PlexFetchDataService.class);
+    sectionCheckpointRepository = mock(SectionCheckpointRepository.class);
+    when(plexFetchDataService.movieSections())
+        .thenReturn(Flux.just(new PlexSection("1", SECTION_UPDATED_AT)));
+    when(sectionCheckpointRepository.findAllById(any())).thenReturn(stored);
+    service = new CandidateDiscoveryService(plexFetchDataService, sectionCheckpointRepository);
+    ReflectionTestUtils.setField(service, "incrementalEnabled", true);
+    ReflectionTestUtils.setField(service, "fullSyncInterval", Duration.ofDays(7));
+    now = Instant.now().getEpochSecond();
+  }
+
+  @Test
+  void sectionWithoutCheckpointIsDiscoveredInFull() {
+    CandidateDiscovery discovery = service.discover();
+
+    SectionCheckpointModel checkpoint = discovery.getCheckpoints().get(0);
+    assertThat(discovery.getFiltersBySection().get("1"))
+        .containsExactly("viewCount>=1&lastViewedAt<=" + checkpoint.getLastViewedCutoff());
+    assertThat(checkpoint.getLastFullSyncAt()).isBetween(now, now + 60);
+    assertThat(checkpoint.getSectionUpdatedAt()).isEqualTo(SECTION_UPDATED_AT);
+  }
+
+  @Test
+  void unchangedSectionOnlyAsksForNewlyOldMovies() {
+    stored.add(new SectionCheckpointModel("1", 1000L, 2000L, now - 60, SECTION_UPDATED_AT));
+
+    CandidateDiscovery discovery = service.discover();
+
+    SectionCheckpointModel checkpoint = discovery.getCheckpoints().get(0);
+    assertThat(discovery.getFiltersBySection().get("1")).containsExactly(
+        "viewCount>=1&lastViewedAt>>=1000&lastViewedAt<=" + checkpoint.getLastViewedCutoff());
+    assertThat(checkpoint.getUpdatedAtMark()).isEqualTo(2000L);
+    assertThat(checkpoint.getLastFullSyncAt()).isEqualTo(now - 60);
+  }
+
+  @Test
+  void changedSectionAlsoAsksForUpdatedMovies() {
+    stored.add(new SectionCheckpointModel("1", 1000L, 2000L, now - 60, SECTION_UPDATED_AT - 1));
+
+    CandidateDiscovery discovery = service.discover();
+
+    SectionCheckpointModel checkpoint = discovery.getCheckpoints().get(0);
+    long cutoff = checkpoint.getLastViewedCutoff();
+    assertThat(discovery.getFiltersBySection().get("1")).containsExactly(
+        "viewCount>=1&lastViewedAt>>=1000&lastViewedAt<=" + cutoff,
+        "viewCount>=1&lastViewedAt<=" + cutoff + "&updatedAt>>=2000");
+    assertThat(checkpoint.getUpdatedAtMark()).isBetween(now, now + 60);
+  }
+
+  @Test
+  void staleFullSyncFallsBackToAFullDiscovery() {
+    stored.add(new SectionCheckpointModel("1", 1000L, 2000L, now - Duration.ofDays(8).toSeconds(),
+        SECTION_UPDATED_AT));
+
+    CandidateDiscovery discovery = service.discover();
+
+    assertThat(discovery.getFiltersBySection().get("1")).singleElement().asString()
+        .startsWith("viewCount>=1&lastViewedAt<=");
+    assertThat(discovery.getCheckpoints().get(0).getLastFullSyncAt()).isBetween(now, now + 60);
+  }
+
+  @Test
+  void commitHoldsTheCutoffBelowTheOldestMovieLeftBehind() {
+    var discovery = new CandidateDiscovery(null, List.of(
+        new SectionCheckpointModel("1", 5000L, 2000L, 3000L, SECTION_UPDATED_AT),
+        new SectionCheckpointModel("2", 1000L, 2000L, 3000L, SECTION_UPDATED_AT)));
+
+    service.commit(discovery, OptionalLong.of(4000L));
+
+    assertThat(saved()).extracting(SectionCheckpointModel::getSectionId,
+            SectionCheckpointModel::getLastViewedCutoff)
+        .containsExactly(tuple("1", 3999L),
+            tuple("2", 1000L));
+  }
+
+  @Test
+  void commitStoresTheCheckpointsWhenNothingWasLeftBehind() {
+    var checkpoint = new SectionCheckpointModel("1", 5000L, 2000L, 3000L, SECTION_UPDATED_AT);
+
+    service.commit(new CandidateDiscovery(null, List.of(checkpoint)), OptionalLong.empty());
+
+    assertThat(saved()).containsExactly(checkpoint);
+  }
+
+  @Test
+  void disabledIncrementalDiscoveryNeitherReadsNorStoresCheckpoints() {
+    ReflectionTestUtils.setField(service, "incrementalEnabled", false);
+    stored.add(new SectionCheckpointModel("1", 1000L, 2000L, now - 60, SECTION_UPDATED_AT));
+
+    CandidateDiscovery discovery = service.discover();
+    service.commit(discovery, OptionalLong.empty());
+
+    assertThat(discovery.getFiltersBySection().get("1")).singleElement().asString()
+        .startsWith("viewCount>=1&lastViewedAt<=");
+    verify(sectionCheckpointRepository, never()).findAllById(any());
+    verify(sectionCheckpointRepository, never()).saveAll(any());
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<SectionCheckpointModel> saved() {
+    ArgumentCaptor<List<SectionCheckpointModel>> captor = ArgumentCaptor.forClass(List.class);
+    verify(sectionCheckpointRepository).saveAll(captor.capture());
+    return captor.getValue();
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.sohardh.plexarchiver.EmbeddedDatabaseConfig;
+import com.sohardh.plexarchiver.dao.model.MovieFileModel;
+import com.sohardh.plexarchiver.dao.repository.ArchiveWorkRepository;
+import com.sohardh.plexarchiver.util.ClusterPartition;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Two nodes sharing the archive queue, each with its own owner. Runs without a test transaction,
+ * so both see each other's committed claims.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = Replace.NONE)
+@Import(EmbeddedDatabaseConfig.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ClusterWorkServiceTest {
+
+  @Autowired
+  private ArchiveWorkRepository archiveWorkRepository;
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+  @Autowired
+  private DataSource dataSource;
+  private ClusterWorkService nodeA;
+  private ClusterWorkService nodeB;
+
+  @BeforeEach
+  void setUp() {
+    jdbcTemplate.execute("TRUNCATE pa.archive_work");
+    nodeA = node("node-a");
+    nodeB = node("node-b");
+  }
+
+  @Test
+  void enqueueSkipsMoviesWithoutFilesAndKeepsQueuedMovies() {
+    nodeA.enqueue(movies(2));
+    nodeA.claim();
+    Map<String, List<MovieFileModel>> movies = movies(4);
+    movies.put("empty", List.of());
+
+    nodeB.enqueue(movies);
+
+    assertThat(jdbcTemplate.queryForList(
+        "SELECT guid || ':' || status FROM pa.archive_work ORDER BY guid", String.class))
+        .containsExactly("movie-0:CLAIMED", "movie-1:CLAIMED", "movie-2:QUEUED",
+            "movie-3:QUEUED");
+  }
+
+  @Test
+  void nodesClaimDisjointMovies() {
+    nodeA.enqueue(movies(5));
+
+    List<String> claimedByA = nodeA.claim();
+    List<String> claimedByB = nodeB.claim();
+
+    assertThat(claimedByA).hasSize(3);
+    assertThat(claimedByB).hasSize(2).doesNotContainAnyElementsOf(claimedByA);
+    assertThat(nodeA.claim()).isEmpty();
+  }
+
+  @Test
+  void rowsLockedByAConcurrentClaimAreSkipped() throws Exception {
+    nodeA.enqueue(movies(2));
+
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement()) {
+      connection.setAutoCommit(false);
+      statement.execute("SELECT guid FROM pa.archive_work WHERE guid = 'movie-0' FOR UPDATE");
+
+      assertThat(nodeB.claim()).containsExactly("movie-1");
+      connection.rollback();
+    }
+    assertThat(nodeA.claim()).containsExactly("movie-0");
+  }
+
+  @Test
+  void staleClaimIsTakenOverAndOnlyTheNewOwnerCompletesIt() {
+    nodeA.enqueue(movies(1));
+    nodeA.claim();
+    nodeA.checkClaim("movie-0");
+    jdbcTemplate.update("UPDATE pa.archive_work SET heartbeat_at = now() - interval '1 hour'");
+
+    assertThat(nodeB.claim()).containsExactly("movie-0");
+    assertThatThrownBy(() -> nodeA.checkClaim("movie-0"))
+        .isInstanceOf(CancellationException.class);
+
+    nodeA.complete("movie-0");
+    assertThat(archiveWorkRepository.count()).isEqualTo(1);
+    nodeB.complete("movie-0");
+    assertThat(archiveWorkRepository.count()).isZero();
+  }
+
+  @Test
+  void releasedClaimFailsOnceItUsedUpItsAttempts() {
+    nodeA.enqueue(movies(1));
+
+    for (int attempt = 0; attempt < 2; attempt++) {
+      assertThat(nodeA.claim()).containsExactly("movie-0");
+      nodeA.release("movie-0");
+    }
+
+    assertThat(nodeB.claim()).isEmpty();
+    assertThat(jdbcTemplate.queryForObject("SELECT status FROM pa.archive_work", String.class))
+        .isEqualTo("FAILED");
+  }
+
+  private ClusterWorkService node(String owner) {
+    JobRunService jobRunService = mock(JobRunService.class);
+    when(jobRunService.owner()).thenReturn(owner);
+    var node = new ClusterWorkService(archiveWorkRepository, jobRunService);
+    ReflectionTestUtils.setField(node, "partition", ClusterPartition.ANY);
+    ReflectionTestUtils.setField(node, "claimSize", 3);
+    ReflectionTestUtils.setField(node, "claimTtl", Duration.ofMinutes(10));
+    ReflectionTestUtils.setField(node, "maxAttempts", 2);
+    return node;
+  }
+
+  private static Map<String, List<MovieFileModel>> movies(int count) {
+    Map<String, List<MovieFileModel>> movies = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      var file = new MovieFileModel();
+      file.setOriginalFile("/movies/Movie " + i + "/movie.mkv");
+      movies.put("movie-" + i, List.of(file));
+    }
+    return movies;
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sohardh.plexarchiver.EmbeddedDatabaseConfig;
+import com.sohardh.plexarchiver.dao.model.FileMetadataModel;
+import com.sohardh.plexarchiver.dao.repository.FileMetadataRepository;
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.MoviePart;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * When cached file metadata is trusted and when it is read again or dropped.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = Replace.NONE)
+@Import({EmbeddedDatabaseConfig.class, FileMetadataCache.class})
+@TestPropertySource(properties = {"metadata.cache.stat-max-age=1h",
+    "metadata.cache.evict-after=1d"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class FileMetadataCacheTest {
+
+  @TempDir
+  private Path root;
+  @Autowired
+  private FileMetadataCache fileMetadataCache;
+  @Autowired
+  private FileMetadataRepository fileMetadataRepository;
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @BeforeEach
+  void setUp() {
+    jdbcTemplate.execute("TRUNCATE pa.file_metadata");
+  }
+
+  @Test
+  void sizeReportedByPlexIsUsedWithoutReadingTheFile() {
+    Movie movie = movie(part(root.resolve("missing.mkv").toString(), 1000));
+
+    assertThat(fileMetadataCache.size(movie)).isEqualTo(1000);
+    assertThat(fileMetadataRepository.count()).isZero();
+  }
+
+  @Test
+  void attributesAreReadAgainOnlyOnceTheyAreTooOld() throws IOException {
+    String path = file("movie.mkv", 10);
+
+    assertThat(fileMetadataCache.size(movie(part(path, 0)))).isEqualTo(10);
+    append(path, 5);
+    assertThat(fileMetadataCache.stat(path)).map(FileMetadataModel::getSize).hasValue(10L);
+
+    age(path);
+
+    assertThat(fileMetadataCache.stat(path)).map(FileMetadataModel::getSize).hasValue(15L);
+  }
+
+  @Test
+  void checksumIsDroppedWhenTheFileChanged() throws IOException {
+    String path = file("movie.mkv", 10);
+    fileMetadataCache.recordChecksum(path, "abc");
+
+    age(path);
+    assertThat(fileMetadataCache.stat(path)).map(FileMetadataModel::getChecksum)
+        .hasValue("abc");
+
+    append(path, 5);
+    age(path);
+    assertThat(fileMetadataCache.stat(path)).map(FileMetadataModel::getChecksum).isEmpty();
+  }
+
+  @Test
+  void checksumIsDroppedWhenPlexReportsAnotherSize() throws IOException {
+    String path = file("movie.mkv", 10);
+    fileMetadataCache.observe(List.of(movie(part(path, 10))));
+    fileMetadataCache.recordChecksum(path, "abc");
+
+    fileMetadataCache.observe(List.of(movie(part(path, 10))));
+    assertThat(fileMetadataRepository.findById(path)).map(FileMetadataModel::getChecksum)
+        .hasValue("abc");
+
+    fileMetadataCache.observe(List.of(movie(part(path, 20))));
+    assertThat(fileMetadataRepository.findById(path)).hasValueSatisfying(metadata -> {
+      assertThat(metadata.getSize()).isEqualTo(20);
+      assertThat(metadata.getChecksum()).isNull();
+    });
+  }
+
+  @Test
+  void missingFileIsEvicted() throws IOException {
+    String path = file("movie.mkv", 10);
+    fileMetadataCache.stat(path);
+    Files.delete(Path.of(path));
+    age(path);
+
+    assertThat(fileMetadataCache.stat(path)).isEmpty();
+    assertThat(fileMetadataRepository.existsById(path)).isFalse();
+  }
+
+  @Test
+  void filesPlexStoppedReportingAreEvicted() {
+    fileMetadataCache.observe(List.of(movie(part("/movies/old.mkv", 10),
+        part("/movies/new.mkv", 10))));
+    jdbcTemplate.update("UPDATE pa.file_metadata SET last_seen_at = now() - interval '2 days' "
+        + "WHERE path = '/movies/old.mkv'");
+
+    assertThat(fileMetadataCache.evictUnseen()).isEqualTo(1);
+    assertThat(fileMetadataRepository.findAll()).extracting(FileMetadataModel::getPath)
+        .containsExactly("/movies/new.mkv");
+  }
+
+  private String file(String name, int size) throws IOException {
+    return Files.write(root.resolve(name), new byte[size]).toString();
+  }
+
+  private void age(String path) {
+    jdbcTemplate.update("UPDATE pa.file_metadata SET stat_at = now() - interval '2 hours' "
+        + "WHERE path = ?", path);
+  }
+
+  private static void append(String path, int bytes) throws IOException {
+    Files.write(Path.of(path), new byte[bytes], StandardOpenOption.APPEND);
+  }
+
+  private static MoviePart part(String file, long size) {
+    return MoviePart.builder().file(file).size(size).build();
+  }
+
+  private static Movie movie(MoviePart... parts) {
+    return Movie.builder().guid("plex://movie/1").parts(List.of(parts)).build();
+  }
+}
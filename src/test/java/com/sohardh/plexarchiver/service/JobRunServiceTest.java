@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.sohardh.plexarchiver.EmbeddedDatabaseConfig;
+import com.sohardh.plexarchiver.dao.repository.JobLeaseRepository;
+import com.sohardh.plexarchiver.dao.repository.JobRunRepository;
+import com.sohardh.plexarchiver.dto.ArchiveRunSummary;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Two instances competing for the lease of a job, each with its own owner. Runs without a test
+ * transaction, so both see each other's committed leases.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = Replace.NONE)
+@Import({EmbeddedDatabaseConfig.class, JobRunService.class})
+@TestPropertySource(properties = {"job.lease.ttl=2s", "job.lease.heartbeat-interval=500ms"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class JobRunServiceTest {
+
+  private static final String JOB = "archive";
+  @Autowired
+  private JobRunService jobRunService;
+  @Autowired
+  private JobLeaseRepository jobLeaseRepository;
+  @Autowired
+  private JobRunRepository jobRunRepository;
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+  private JobRunService otherInstance;
+
+  @BeforeEach
+  void setUp() {
+    jdbcTemplate.execute("TRUNCATE pa.job_lease, pa.job_run");
+    otherInstance = new JobRunService(jobLeaseRepository, jobRunRepository);
+    ReflectionTestUtils.setField(otherInstance, "leaseTtl", Duration.ofSeconds(2));
+    ReflectionTestUtils.setField(otherInstance, "heartbeatInterval", Duration.ofMillis(500));
+    otherInstance.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    otherInstance.shutdown();
+  }
+
+  @Test
+  void heldLeaseSkipsTheRunOfAnotherInstance() {
+    Optional<ArchiveRunSummary> summary = jobRunService.runExclusively(JOB, () -> {
+      assertThat(otherInstance.runExclusively(JOB, JobRunServiceTest::completed)).isEmpty();
+      return completed();
+    });
+
+    assertThat(summary).isPresent();
+    assertThat(statuses()).containsExactly("SUCCEEDED");
+  }
+
+  @Test
+  void heartbeatKeepsTheLeaseOfALongRun() {
+    Optional<ArchiveRunSummary> summary = jobRunService.runExclusively(JOB, () -> {
+      sleep(Duration.ofSeconds(3));
+      jobRunService.checkLease(JOB);
+      assertThat(otherInstance.runExclusively(JOB, JobRunServiceTest::completed))
+          .isEmpty();
+      return completed();
+    });
+
+    assertThat(summary).hasValueSatisfying(run -> assertThat(run.isCompleted()).isTrue());
+    assertThat(statuses()).containsExactly("SUCCEEDED");
+  }
+
+  @Test
+  void expiredLeaseIsTakenOverAndItsRunAbandoned() {
+    jdbcTemplate.update("INSERT INTO pa.job_lease (job_name, owner, acquired_at, heartbeat_at, "
+        + "expires_at) VALUES (?, 'dead', now(), now(), now() - interval '1 second')", JOB);
+    jdbcTemplate.update("INSERT INTO pa.job_run (job_run_id, job_name, owner, status, "
+        + "started_at, heartbeat_at) VALUES (nextval('pa.job_run_seq'), ?, 'dead', 'RUNNING', "
+        + "now(), now())", JOB);
+
+    Optional<ArchiveRunSummary> summary = jobRunService.runExclusively(JOB,
+        JobRunServiceTest::completed);
+
+    assertThat(summary).isPresent();
+    assertThat(statuses()).containsExactly("ABANDONED", "SUCCEEDED");
+    assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM pa.job_lease", Integer.class))
+        .isZero();
+  }
+
+  @Test
+  void runThatLostItsLeaseFailsItsLeaseChecks() {
+    Optional<ArchiveRunSummary> summary = jobRunService.runExclusively(JOB, () -> {
+      jdbcTemplate.update("UPDATE pa.job_lease SET expires_at = now() - interval '1 second'");
+      assertThat(otherInstance.runExclusively(JOB, () -> {
+        assertThatThrownBy(() -> jobRunService.checkLease(JOB))
+            .isInstanceOf(CancellationException.class);
+        otherInstance.checkLease(JOB);
+        return completed();
+      })).isPresent();
+      return completed();
+    });
+
+    assertThat(summary).isPresent();
+    assertThat(statuses()).containsExactly("FAILED", "SUCCEEDED");
+    assertThat(jdbcTemplate.queryForObject("SELECT message FROM pa.job_run WHERE status = "
+        + "'FAILED'", String.class)).isEqualTo("Lost the lease.");
+  }
+
+  @Test
+  void leaseOfOneJobDoesNotCoverAnother() {
+    Optional<ArchiveRunSummary> summary = jobRunService.runExclusively(JOB, () -> {
+      assertThatThrownBy(() -> jobRunService.checkLease("restore"))
+          .isInstanceOf(CancellationException.class);
+      assertThat(jobRunService.runExclusively("restore", () -> {
+        jobRunService.checkLease("restore");
+        return completed();
+      })).isPresent();
+      jobRunService.checkLease(JOB);
+      return completed();
+    });
+
+    assertThat(summary).isPresent();
+    assertThat(statuses()).containsExactly("SUCCEEDED", "SUCCEEDED");
+  }
+
+  private List<String> statuses() {
+    return jdbcTemplate.queryForList("SELECT status FROM pa.job_run ORDER BY job_run_id",
+        String.class);
+  }
+
+  private static ArchiveRunSummary completed() {
+    var summary = new ArchiveRunSummary();
+    summary.markCompleted();
+    return summary;
+  }
+
+  private static void sleep(Duration duration) {
+    try {
+      Thread.sleep(duration.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+}
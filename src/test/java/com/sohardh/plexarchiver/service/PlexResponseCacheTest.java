@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+/**
+ * Plex is replaced by an exchange function that answers with the queued responses and keeps the
+ * requests it was sent.
+ */
+class PlexResponseCacheTest {
+
+  private static final String SECTIONS = "/library/sections";
+  private static final String ETAG = "\"v1\"";
+  private static final String LAST_MODIFIED = "Tue, 15 Oct 2024 10:00:00 GMT";
+  private final Deque<ClientResponse> responses = new ArrayDeque<>();
+  private final List<ClientRequest> requests = new ArrayList<>();
+  private ArchiveMetrics archiveMetrics;
+  private PlexResponseCache plexResponseCache;
+
+  @BeforeEach
+  void setUp() {
+    archiveMetrics = mock(ArchiveMetrics.class);
+    WebClient plexWebClient = WebClient.builder().exchangeFunction(request -> {
+      requests.add(request);
+      return Mono.just(responses.remove());
+    }).build();
+    plexResponseCache = new PlexResponseCache(plexWebClient, archiveMetrics);
+  }
+
+  @Test
+  void notModifiedAnswerIsServedFromTheKeptBody() {
+    respond(ClientResponse.create(HttpStatus.OK).header(HttpHeaders.ETAG, ETAG)
+        .header(HttpHeaders.LAST_MODIFIED, LAST_MODIFIED).body("sections").build());
+    respond(ClientResponse.create(HttpStatus.NOT_MODIFIED).build());
+
+    assertThat(plexResponseCache.get(SECTIONS).block()).isEqualTo("sections");
+    assertThat(plexResponseCache.get(SECTIONS).block()).isEqualTo("sections");
+
+    assertThat(requests.get(0).headers().getIfNoneMatch()).isEmpty();
+    assertThat(requests.get(1).headers().getIfNoneMatch()).containsExactly(ETAG);
+    assertThat(requests.get(1).headers().getFirst(HttpHeaders.IF_MODIFIED_SINCE))
+        .isEqualTo(LAST_MODIFIED);
+    verify(archiveMetrics).recordConditionalFetch(false);
+    verify(archiveMetrics).recordConditionalFetch(true);
+  }
+
+  @Test
+  void modifiedAnswerReplacesTheKeptBody() {
+    respond(ClientResponse.create(HttpStatus.OK).header(HttpHeaders.ETAG, ETAG)
+        .body("old").build());
+    respond(ClientResponse.create(HttpStatus.OK).header(HttpHeaders.ETAG, "\"v2\"")
+        .body("new").build());
+    respond(ClientResponse.create(HttpStatus.NOT_MODIFIED).build());
+
+    plexResponseCache.get(SECTIONS).block();
+    assertThat(plexResponseCache.get(SECTIONS).block()).isEqualTo("new");
+    assertThat(plexResponseCache.get(SECTIONS).block()).isEqualTo("new");
+
+    assertThat(requests.get(2).headers().getIfNoneMatch()).containsExactly("\"v2\"");
+  }
+
+  @Test
+  void responseWithoutValidatorsIsNotKept() {
+    respond(ClientResponse.create(HttpStatus.OK).header(HttpHeaders.ETAG, ETAG)
+        .body("old").build());
+    respond(ClientResponse.create(HttpStatus.OK).body("new").build());
+    respond(ClientResponse.create(HttpStatus.OK).body("newer").build());
+
+    plexResponseCache.get(SECTIONS).block();
+    plexResponseCache.get(SECTIONS).block();
+    assertThat(plexResponseCache.get(SECTIONS).block()).isEqualTo("newer");
+
+    assertThat(requests.get(2).headers().getIfNoneMatch()).isEmpty();
+    assertThat(requests.get(2).headers().getFirst(HttpHeaders.IF_MODIFIED_SINCE)).isNull();
+  }
+
+  @Test
+  void otherUriIsNotRequestedConditionally() {
+    respond(ClientResponse.create(HttpStatus.OK).header(HttpHeaders.ETAG, ETAG)
+        .body("sections").build());
+    respond(ClientResponse.create(HttpStatus.OK).body("other").build());
+
+    plexResponseCache.get(SECTIONS).block();
+    assertThat(plexResponseCache.get("/library/other").block()).isEqualTo("other");
+
+    assertThat(requests.get(1).headers().getIfNoneMatch()).isEmpty();
+  }
+
+  @Test
+  void errorAnswerFails() {
+    respond(ClientResponse.create(HttpStatus.UNAUTHORIZED).build());
+
+    assertThatThrownBy(() -> plexResponseCache.get(SECTIONS).block())
+        .isInstanceOf(WebClientResponseException.Unauthorized.class);
+  }
+
+  private void respond(ClientResponse response) {
+    responses.add(response);
+  }
+}
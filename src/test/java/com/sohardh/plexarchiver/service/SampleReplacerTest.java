@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.sohardh.plexarchiver.util.SampleLinkMode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class SampleReplacerTest {
+
+  @TempDir
+  private Path root;
+  private Path sample;
+  private SampleReplacer sampleReplacer;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    sample = Files.writeString(root.resolve("sample.mkv"), "sample");
+    sampleReplacer = spy(new SampleReplacer());
+    ReflectionTestUtils.setField(sampleReplacer, "linkMode", SampleLinkMode.HARDLINK);
+    ReflectionTestUtils.setField(sampleReplacer, "timeout", Duration.ofSeconds(10));
+  }
+
+  @Test
+  void sampleIsHardlinkedOverTheOriginal() throws Exception {
+    Path original = movie("a/movie.mkv");
+
+    sampleReplacer.replace(sample, original);
+
+    verify(sampleReplacer).place(SampleLinkMode.HARDLINK, sample, staged(original));
+    assertThat(Files.isSameFile(original, sample)).isTrue();
+    assertThat(Files.list(original.getParent())).containsExactly(original);
+  }
+
+  @Test
+  void failedHardlinkFallsBackToACopyOnlyInItsDirectory() throws Exception {
+    Path first = movie("a/first.mkv");
+    Path second = movie("a/second.mkv");
+    Path other = movie("b/other.mkv");
+    doThrow(new IOException("Invalid cross-device link")).when(sampleReplacer)
+        .place(eq(SampleLinkMode.HARDLINK), any(), eq(staged(first)));
+
+    sampleReplacer.replace(sample, first);
+    sampleReplacer.replace(sample, second);
+    sampleReplacer.replace(sample, other);
+
+    assertThat(Files.isSameFile(first, sample)).isFalse();
+    assertThat(Files.isSameFile(second, sample)).isFalse();
+    assertThat(first).hasContent("sample");
+    assertThat(second).hasContent("sample");
+    assertThat(Files.isSameFile(other, sample)).isTrue();
+    verify(sampleReplacer, times(1)).place(eq(SampleLinkMode.HARDLINK), any(),
+        eq(staged(first)));
+    verify(sampleReplacer, times(0)).place(eq(SampleLinkMode.HARDLINK), any(),
+        eq(staged(second)));
+  }
+
+  @Test
+  void failedCopyLeavesTheOriginalInPlace() throws Exception {
+    ReflectionTestUtils.setField(sampleReplacer, "linkMode", SampleLinkMode.COPY);
+    Path original = movie("a/movie.mkv");
+
+    assertThatThrownBy(() -> sampleReplacer.replace(root.resolve("missing.mkv"), original))
+        .isInstanceOf(NoSuchFileException.class);
+
+    assertThat(original).hasContent("movie");
+    assertThat(Files.list(original.getParent())).containsExactly(original);
+  }
+
+  private Path movie(String name) throws IOException {
+    Path movie = root.resolve(name);
+    Files.createDirectories(movie.getParent());
+    return Files.writeString(movie, "movie");
+  }
+
+  /**
+   * Hidden and without a media extension, so plex scans skip it.
+   */
+  private static Path staged(Path original) {
+    return original.resolveSibling(".plexarchiver-" + original.getFileName() + ".tmp");
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.sohardh.plexarchiver.dto.ArchivedFile;
+import com.sohardh.plexarchiver.service.ArchiveMetrics;
+import com.sohardh.plexarchiver.service.TransferThrottle;
+import com.sohardh.plexarchiver.util.DigestUtil;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+class DedupArchiveTransportTest {
+
+  @TempDir
+  private Path root;
+  private Path chunks;
+  private ArchiveMetrics archiveMetrics;
+  private DedupArchiveTransport transport;
+
+  @BeforeEach
+  void setUp() {
+    archiveMetrics = mock(ArchiveMetrics.class);
+    transport = new DedupArchiveTransport(archiveMetrics, mock(TransferThrottle.class));
+    ReflectionTestUtils.setField(transport, "moviesFilePath", root.resolve("movies").toString());
+    ReflectionTestUtils.setField(transport, "archiveFilePath", root.resolve("archive").toString());
+    ReflectionTestUtils.setField(transport, "averageChunkSize", DataSize.ofKilobytes(4));
+    ReflectionTestUtils.setField(transport, "compressionLevel", 1);
+    ReflectionTestUtils.setField(transport, "threads", 2);
+    ReflectionTestUtils.setField(transport, "verify", true);
+    ReflectionTestUtils.setField(transport, "checksumAlgorithm", "SHA-256");
+    transport.init();
+    chunks = root.resolve("archive/chunks");
+  }
+
+  @AfterEach
+  void tearDown() {
+    transport.shutdown();
+  }
+
+  @Test
+  void archivedFileIsRestoredByteForByte() throws Exception {
+    byte[] content = new byte[300_000];
+    new Random(1).nextBytes(content);
+    // A compressible stretch, so both raw and deflated chunks are stored.
+    Arrays.fill(content, 100_000, 200_000, (byte) 'a');
+    Path original = movie("Movie (2001)/movie.mkv", content);
+
+    ArchivedFile archivedFile = transport.archive(original.toString());
+    Files.writeString(original, "sample");
+    transport.restore(archivedFile.getBackupFile(), original.toString(),
+        archivedFile.getChecksum());
+
+    assertThat(archivedFile.getBackupFile()).isEqualTo(
+        root.resolve("archive/manifests/Movie (2001)/movie.mkv.manifest").toString());
+    assertThat(archivedFile.getSize()).isEqualTo(content.length);
+    assertThat(archivedFile.getChecksum()).isEqualTo(sha256(content));
+    assertThat(transport.checksum(archivedFile.getBackupFile())).isEqualTo(sha256(content));
+    assertThat(Files.readAllBytes(original)).isEqualTo(content);
+    assertThat(Files.list(original.getParent())).containsExactly(original);
+  }
+
+  @Test
+  void sharedDataIsStoredOnce() throws Exception {
+    byte[] content = new byte[300_000];
+    new Random(2).nextBytes(content);
+    byte[] edition = new byte[content.length + 1000];
+    new Random(3).nextBytes(edition);
+    System.arraycopy(content, 0, edition, 1000, content.length);
+
+    transport.archive(movie("Movie/movie.mkv", content).toString());
+    long chunksOfFirst = chunkCount();
+    ArchivedFile archivedEdition = transport.archive(movie("Movie/edition.mkv", edition)
+        .toString());
+
+    assertThat(chunkCount() - chunksOfFirst).isLessThan(chunksOfFirst / 4);
+    verify(archiveMetrics, atLeast(1)).recordChunk(eq(true), anyLong());
+    Path restored = root.resolve("restored.mkv");
+    transport.restore(archivedEdition.getBackupFile(), restored.toString(), null);
+    assertThat(Files.readAllBytes(restored)).isEqualTo(edition);
+  }
+
+  @Test
+  void corruptedChunkFailsTheRestoreAndKeepsTheSample() throws Exception {
+    byte[] content = new byte[50_000];
+    new Random(4).nextBytes(content);
+    Path original = movie("Movie/movie.mkv", content);
+    ArchivedFile archivedFile = transport.archive(original.toString());
+    Files.writeString(original, "sample");
+    try (Stream<Path> files = Files.walk(chunks)) {
+      Path chunk = files.filter(Files::isRegularFile).findFirst().orElseThrow();
+      byte[] stored = Files.readAllBytes(chunk);
+      stored[stored.length - 1]++;
+      Files.write(chunk, stored);
+    }
+
+    assertThatThrownBy(() -> transport.restore(archivedFile.getBackupFile(), original.toString(),
+        archivedFile.getChecksum())).isInstanceOf(IOException.class);
+
+    assertThat(original).hasContent("sample");
+  }
+
+  private Path movie(String name, byte[] content) throws IOException {
+    Path movie = root.resolve("movies").resolve(name);
+    Files.createDirectories(movie.getParent());
+    return Files.write(movie, content);
+  }
+
+  private long chunkCount() throws IOException {
+    try (Stream<Path> files = Files.walk(chunks)) {
+      return files.filter(Files::isRegularFile).count();
+    }
+  }
+
+  private static String sha256(byte[] content) {
+    MessageDigest digest = DigestUtil.newDigest("SHA-256");
+    digest.update(content);
+    return DigestUtil.toHex(digest);
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.sohardh.plexarchiver.dao.model.ChunkState;
+import com.sohardh.plexarchiver.dao.model.TransferChunkModel;
+import com.sohardh.plexarchiver.dao.repository.TransferChunkRepository;
+import com.sohardh.plexarchiver.dto.ArchivedFile;
+import com.sohardh.plexarchiver.service.TransferThrottle;
+import com.sohardh.plexarchiver.service.TransferThrottle.Direction;
+import com.sohardh.plexarchiver.util.DigestUtil;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Resuming an interrupted copy from the chunk journal, which is kept in memory here.
+ */
+class LocalArchiveTransportTest {
+
+  private static final int CHUNK_SIZE = 1000;
+  private final List<TransferChunkModel> journal = new ArrayList<>();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicInteger failOnSave = new AtomicInteger(-1);
+  @TempDir
+  private Path root;
+  private Path source;
+  private Path partial;
+  private byte[] content;
+  private LocalArchiveTransport transport;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    TransferChunkRepository transferChunkRepository = mock(TransferChunkRepository.class);
+    when(transferChunkRepository.findBySourceFileOrderByChunkIndex(anyString()))
+        .thenAnswer(invocation -> List.copyOf(journal));
+    when(transferChunkRepository.saveAll(any())).thenAnswer(invocation -> {
+      journal.addAll(invocation.getArgument(0));
+      return List.copyOf(journal);
+    });
+    when(transferChunkRepository.save(any())).thenAnswer(invocation -> {
+      TransferChunkModel chunk = invocation.getArgument(0);
+      if (chunk.getChunkIndex() == failOnSave.get()) {
+        // The chunk was written but never recorded, like when the process died in between.
+        chunk.setState(ChunkState.PENDING);
+        throw new IllegalStateException("interrupted");
+      }
+      return chunk;
+    });
+    doAnswer(invocation -> {
+      journal.clear();
+      return null;
+    }).when(transferChunkRepository).deleteBySourceFile(anyString());
+    TransferThrottle transferThrottle = mock(TransferThrottle.class);
+    doAnswer(invocation -> {
+      written.addAndGet(invocation.getArgument(1));
+      return null;
+    }).when(transferThrottle).acquire(eq(Direction.WRITE), anyLong());
+
+    transport = new LocalArchiveTransport(transferChunkRepository, transferThrottle);
+    ReflectionTestUtils.setField(transport, "moviesFilePath", root.resolve("movies").toString());
+    ReflectionTestUtils.setField(transport, "archiveFilePath", root.resolve("archive").toString());
+    ReflectionTestUtils.setField(transport, "bufferSize", DataSize.ofBytes(256));
+    ReflectionTestUtils.setField(transport, "preallocate", true);
+    ReflectionTestUtils.setField(transport, "resumable", true);
+    ReflectionTestUtils.setField(transport, "chunkSize", DataSize.ofBytes(CHUNK_SIZE));
+    ReflectionTestUtils.setField(transport, "verify", true);
+    ReflectionTestUtils.setField(transport, "checksumAlgorithm", "SHA-256");
+
+    content = new byte[4500];
+    new Random(7).nextBytes(content);
+    source = root.resolve("movies/Movie (2001)/movie.mkv");
+    Files.createDirectories(source.getParent());
+    Files.write(source, content);
+    partial = root.resolve("archive/Movie (2001)/movie.mkv.part");
+  }
+
+  @Test
+  void interruptedCopyResumesAfterTheLastRecordedChunk() throws Exception {
+    interruptAtChunk(3);
+
+    ArchivedFile archivedFile = transport.archive(source.toString());
+
+    assertThat(written).hasValue(content.length - 3 * CHUNK_SIZE);
+    assertArchived(archivedFile);
+  }
+
+  @Test
+  void corruptedChunkIsCopiedAgainWithAllChunksAfterIt() throws Exception {
+    interruptAtChunk(3);
+    try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[]{(byte) ~content[CHUNK_SIZE + 10]}),
+          CHUNK_SIZE + 10);
+    }
+
+    ArchivedFile archivedFile = transport.archive(source.toString());
+
+    assertThat(written).hasValue(content.length - CHUNK_SIZE);
+    assertArchived(archivedFile);
+  }
+
+  @Test
+  void changedSourceIsCopiedFromTheStart() throws Exception {
+    interruptAtChunk(3);
+    content[0]++;
+    Files.write(source, content);
+    Files.setLastModifiedTime(source, FileTime.fromMillis(
+        Files.getLastModifiedTime(source).toMillis() + 60_000));
+
+    ArchivedFile archivedFile = transport.archive(source.toString());
+
+    assertThat(written).hasValue(content.length);
+    assertArchived(archivedFile);
+  }
+
+  private void interruptAtChunk(int chunkIndex) {
+    failOnSave.set(chunkIndex);
+    assertThatThrownBy(() -> transport.archive(source.toString()))
+        .hasMessage("interrupted");
+    assertThat(partial).exists();
+    failOnSave.set(-1);
+    written.set(0);
+  }
+
+  private void assertArchived(ArchivedFile archivedFile) throws IOException {
+    Path backup = root.resolve("archive/Movie (2001)/movie.mkv");
+    assertThat(archivedFile.getBackupFile()).isEqualTo(backup.toString());
+    assertThat(Files.readAllBytes(backup)).isEqualTo(content);
+    assertThat(partial).doesNotExist();
+    MessageDigest digest = DigestUtil.newDigest("SHA-256");
+    digest.update(content);
+    assertThat(archivedFile.getChecksum()).isEqualTo(DigestUtil.toHex(digest));
+    assertThat(journal).isEmpty();
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.service.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.sohardh.plexarchiver.dao.model.ArchiveState;
+import com.sohardh.plexarchiver.dao.model.MovieFileModel;
+import com.sohardh.plexarchiver.dao.model.MovieModel;
+import com.sohardh.plexarchiver.dao.repository.MovieFileRepository;
+import com.sohardh.plexarchiver.dao.repository.MovieRepository;
+import com.sohardh.plexarchiver.dto.ArchiveRunSummary;
+import com.sohardh.plexarchiver.dto.ArchivedFile;
+import com.sohardh.plexarchiver.dto.CandidateDiscovery;
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.MoviePart;
+import com.sohardh.plexarchiver.service.ArchiveCostEstimator;
+import com.sohardh.plexarchiver.service.ArchiveMetrics;
+import com.sohardh.plexarchiver.service.ArchivePlanCache;
+import com.sohardh.plexarchiver.service.ArchivePolicyEngine;
+import com.sohardh.plexarchiver.service.ArchiveTransport;
+import com.sohardh.plexarchiver.service.CandidateDiscoveryService;
+import com.sohardh.plexarchiver.service.ClusterWorkService;
+import com.sohardh.plexarchiver.service.FileMetadataCache;
+import com.sohardh.plexarchiver.service.JobRunService;
+import com.sohardh.plexarchiver.service.MovieArchiveService;
+import com.sohardh.plexarchiver.service.PlexFetchDataService;
+import com.sohardh.plexarchiver.service.SampleReplacer;
+import com.sohardh.plexarchiver.service.TransferEngine;
+import com.sohardh.plexarchiver.service.TransferEngine.TransferTask;
+import com.sohardh.plexarchiver.service.WorkflowExecutor;
+import com.sohardh.plexarchiver.util.ExecutionMode;
+import com.sohardh.plexarchiver.util.ParserMode;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+/**
+ * Recovery of files left in every state of the archive state machine, and the handling of failed
+ * swaps during a run.
+ */
+class MovieArchiveServiceImplTest {
+
+  private static final String OWNER = "test-owner";
+  private final List<MovieFileModel> unfinished = new ArrayList<>();
+  private MovieRepository movieRepository;
+  private MovieFileRepository movieFileRepository;
+  private ArchiveTransport archiveTransport;
+  private SampleReplacer sampleReplacer;
+  private JobRunService jobRunService;
+  private PlexFetchDataService plexFetchDataService;
+  private CandidateDiscoveryService candidateDiscoveryService;
+  private ArchivePolicyEngine archivePolicyEngine;
+  private TransferEngine transferEngine;
+  private MovieArchiveService service;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    movieRepository = mock(MovieRepository.class);
+    movieFileRepository = mock(MovieFileRepository.class);
+    archiveTransport = mock(ArchiveTransport.class);
+    sampleReplacer = mock(SampleReplacer.class);
+    jobRunService = mock(JobRunService.class);
+    plexFetchDataService = mock(PlexFetchDataService.class);
+    candidateDiscoveryService = mock(CandidateDiscoveryService.class);
+    archivePolicyEngine = mock(ArchivePolicyEngine.class);
+    transferEngine = mock(TransferEngine.class);
+    ArchiveMetrics archiveMetrics = mock(ArchiveMetrics.class);
+
+    when(movieFileRepository.findAllByStateIn(any())).thenReturn(unfinished);
+    when(movieFileRepository.updateOwnedState(anyInt(), any(), anyString(), eq(OWNER)))
+        .thenReturn(1);
+    when(movieFileRepository.recordBackup(anyInt(), anyString(), anyLong(), any(), any(),
+        anyString(), eq(OWNER))).thenReturn(1);
+    when(movieFileRepository.updateOwnedStateByMovieGuidIn(anyCollection(), any(), anyString(),
+        eq(OWNER))).thenReturn(1);
+    when(jobRunService.owner()).thenReturn(OWNER);
+    when(archiveTransport.host()).thenReturn("localhost");
+    when(archiveTransport.archive(anyString())).thenAnswer(invocation ->
+        new ArchivedFile("/archive" + invocation.getArgument(0), 100, null));
+    when(transferEngine.callWithRetries(anyString(), any())).thenAnswer(invocation ->
+        invocation.<TransferTask<?>>getArgument(1).run());
+    doAnswer(invocation -> {
+      invocation.<Runnable>getArgument(1).run();
+      return null;
+    }).when(archiveMetrics).recordDbBatch(anyString(), any(Runnable.class));
+
+    service = new MovieArchiveServiceImpl(plexFetchDataService,
+        candidateDiscoveryService, movieRepository, movieFileRepository,
+        transferEngine, archiveTransport, archiveMetrics, mock(WorkflowExecutor.class),
+        sampleReplacer, archivePolicyEngine, mock(FileMetadataCache.class),
+        mock(ClusterWorkService.class), mock(ArchivePlanCache.class),
+        mock(ArchiveCostEstimator.class), jobRunService);
+  }
+
+  @Test
+  void pendingFileIsCopiedSwappedAndDone() throws Exception {
+    MovieFileModel file = unfinished("a", 1, ArchiveState.PENDING);
+
+    ArchiveRunSummary summary = service.recoverUnfinished();
+
+    assertThat(summary.isCompleted()).isTrue();
+    assertThat(summary.getArchivedMovies()).isEqualTo(1);
+    assertThat(file.getState()).isEqualTo(ArchiveState.SWAPPED);
+    assertThat(file.getBackupFile()).isEqualTo("/archive/movies/a/1.mkv");
+    verify(archiveTransport).archive("/movies/a/1.mkv");
+    verify(sampleReplacer).replace(any(), eq(Path.of("/movies/a/1.mkv")));
+    verify(movieFileRepository).updateOwnedStateByMovieGuidIn(Set.of("a"), ArchiveState.DONE,
+        MovieArchiveService.JOB_NAME, OWNER);
+  }
+
+  @Test
+  void verifiedFileIsSwappedWithoutCopyingAgain() throws Exception {
+    MovieFileModel file = unfinished("a", 1, ArchiveState.VERIFIED);
+
+    assertThat(service.recoverUnfinished().isCompleted()).isTrue();
+
+    assertThat(file.getState()).isEqualTo(ArchiveState.SWAPPED);
+    verify(archiveTransport, never()).archive(anyString());
+    verify(sampleReplacer).replace(any(), eq(Path.of("/movies/a/1.mkv")));
+    verify(movieFileRepository).updateOwnedStateByMovieGuidIn(eq(Set.of("a")),
+        eq(ArchiveState.DONE), anyString(), eq(OWNER));
+  }
+
+  @Test
+  void swappedFileIsOnlyMarkedDone() throws Exception {
+    unfinished("a", 1, ArchiveState.SWAPPED);
+
+    assertThat(service.recoverUnfinished().isCompleted()).isTrue();
+
+    verify(archiveTransport, never()).archive(anyString());
+    verify(sampleReplacer, never()).replace(any(), any());
+    verify(movieFileRepository).updateOwnedStateByMovieGuidIn(eq(Set.of("a")),
+        eq(ArchiveState.DONE), anyString(), eq(OWNER));
+  }
+
+  @Test
+  void untouchedMovieIsRolledBackWhenItsCopyFails() throws Exception {
+    unfinished("a", 1, ArchiveState.COPYING);
+    unfinished("b", 2, ArchiveState.PENDING);
+    when(archiveTransport.archive("/movies/a/1.mkv")).thenThrow(new IOException("disk full"));
+
+    ArchiveRunSummary summary = service.recoverUnfinished();
+
+    assertThat(summary.isCompleted()).isTrue();
+    assertThat(summary.getFailedMovies()).isEqualTo(1);
+    assertThat(summary.getArchivedMovies()).isEqualTo(1);
+    verify(movieFileRepository).deleteAllByMovieGuidIn(Set.of("a"));
+    verify(movieRepository).deleteAllByIdInBatch(Set.of("a"));
+    verify(movieFileRepository, never()).updateOwnedStateByMovieGuidIn(eq(Set.of("a")), any(),
+        anyString(), anyString());
+  }
+
+  @Test
+  void movieWithAVerifiedBackupIsKeptWhenItsSwapFails() throws Exception {
+    unfinished("a", 1, ArchiveState.VERIFIED);
+    unfinished("a", 2, ArchiveState.PENDING);
+    doThrow(new IOException("busy")).when(sampleReplacer).replace(any(), any());
+
+    ArchiveRunSummary summary = service.recoverUnfinished();
+
+    assertThat(summary.isCompleted()).isFalse();
+    assertThat(summary.getFailedMovies()).isEqualTo(1);
+    verify(movieFileRepository, never()).deleteAllByMovieGuidIn(any());
+    verify(movieRepository, never()).deleteAllByIdInBatch(any());
+  }
+
+  @Test
+  void recoveryStopsOnceTheLeaseIsLost() throws Exception {
+    unfinished("a", 1, ArchiveState.VERIFIED);
+    unfinished("b", 2, ArchiveState.VERIFIED);
+    doThrow(new CancellationException("Lost the lease.")).when(jobRunService)
+        .checkLease(MovieArchiveService.JOB_NAME);
+
+    ArchiveRunSummary summary = service.recoverUnfinished();
+
+    assertThat(summary.isCompleted()).isFalse();
+    verify(sampleReplacer, never()).replace(any(), any());
+    verify(movieFileRepository, never()).deleteAllByMovieGuidIn(any());
+    verify(movieFileRepository, never()).updateOwnedStateByMovieGuidIn(any(), any(), anyString(),
+        anyString());
+  }
+
+  @Test
+  void failedSwapKeepsTheMovieAndHoldsTheCheckpointBack() throws Exception {
+    ReflectionTestUtils.setField(service, "parserMode", ParserMode.STAX);
+    ReflectionTestUtils.setField(service, "executionMode", ExecutionMode.PLATFORM);
+    ReflectionTestUtils.setField(service, "archiveBatchSize", 10);
+    ReflectionTestUtils.setField(service, "minReclaim", DataSize.ofBytes(0));
+    ArchivePolicyEngine.Selection selection = mock(ArchivePolicyEngine.Selection.class);
+    when(selection.select(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    when(archivePolicyEngine.start()).thenReturn(selection);
+    var discovery = new CandidateDiscovery(Map.of(), List.of());
+    when(candidateDiscoveryService.discover()).thenReturn(discovery);
+    when(plexFetchDataService.streamCandidates(any()))
+        .thenReturn(Flux.just(candidate("a", 1000), candidate("b", 2000)));
+    when(movieRepository.findExistingGuids(any())).thenReturn(Set.of());
+    var persisted = new ArrayList<MovieFileModel>();
+    doAnswer(invocation -> {
+      persisted.addAll(invocation.getArgument(0));
+      persisted.forEach(file -> file.setMovieFileModelId(persisted.indexOf(file) + 1));
+      return null;
+    }).when(movieFileRepository).persistAll(any());
+    when(transferEngine.submit(anyString(), anyString(), any())).thenAnswer(invocation -> {
+      try {
+        return CompletableFuture.completedFuture(invocation.<TransferTask<?>>getArgument(2).run());
+      } catch (Exception e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    });
+    doThrow(new IOException("busy")).when(sampleReplacer)
+        .replace(any(), eq(Path.of("/movies/b.mkv")));
+
+    ArchiveRunSummary summary = service.archiveMovies();
+
+    assertThat(summary.isCompleted()).isTrue();
+    assertThat(summary.getArchivedMovies()).isEqualTo(1);
+    assertThat(summary.getFailedMovies()).isEqualTo(1);
+    assertThat(persisted).extracting(MovieFileModel::getState)
+        .containsExactly(ArchiveState.SWAPPED, ArchiveState.VERIFIED);
+    verify(movieFileRepository).updateOwnedStateByMovieGuidIn(Set.of("a"), ArchiveState.DONE,
+        MovieArchiveService.JOB_NAME, OWNER);
+    verify(movieFileRepository, never()).updateOwnedStateByMovieGuidIn(eq(Set.of("b")), any(),
+        anyString(), anyString());
+    verify(movieFileRepository, never()).deleteAllByMovieGuidIn(any());
+    verify(candidateDiscoveryService).commit(discovery, OptionalLong.of(2000));
+  }
+
+  private static Movie candidate(String guid, long lastViewedAt) {
+    return Movie.builder().guid(guid).lastViewedAt(lastViewedAt)
+        .parts(List.of(MoviePart.builder().file("/movies/" + guid + ".mkv").build())).build();
+  }
+
+  private MovieFileModel unfinished(String guid, int id, ArchiveState state) {
+    var movie = new MovieModel();
+    movie.setGuid(guid);
+    var file = new MovieFileModel();
+    file.setMovieFileModelId(id);
+    file.setMovieModel(movie);
+    file.setOriginalFile("/movies/" + guid + "/" + id + ".mkv");
+    file.setSize(100L);
+    file.setState(state);
+    unfinished.add(file);
+    return file;
+  }
+}
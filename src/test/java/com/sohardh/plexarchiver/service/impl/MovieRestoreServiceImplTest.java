@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sohardh.plexarchiver.service.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.when;
+
+import com.sohardh.plexarchiver.EmbeddedDatabaseConfig;
+import com.sohardh.plexarchiver.dao.model.ArchiveState;
+import com.sohardh.plexarchiver.dao.model.MovieFileModel;
+import com.sohardh.plexarchiver.dao.model.MovieModel;
+import com.sohardh.plexarchiver.dao.repository.MovieFileRepository;
+import com.sohardh.plexarchiver.dao.repository.MovieRepository;
+import com.sohardh.plexarchiver.dao.repository.RestoreRequestRepository;
+import com.sohardh.plexarchiver.service.ArchiveMetrics;
+import com.sohardh.plexarchiver.service.ArchiveTransport;
+import com.sohardh.plexarchiver.service.MovieRestoreService;
+import com.sohardh.plexarchiver.service.PlexFetchDataService;
+import com.sohardh.plexarchiver.service.TransferEngine;
+import com.sohardh.plexarchiver.service.TransferEngine.TransferTask;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * The restore queue in <code>pa.restore_request</code> and the worker that takes requests from
+ * it. A single worker makes the restore order observable.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = Replace.NONE)
+@Import({EmbeddedDatabaseConfig.class, MovieRestoreServiceImpl.class})
+@TestPropertySource(properties = "restore.workers=1")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MovieRestoreServiceImplTest {
+
+  private static final String GUID = "plex://movie/1";
+  @Autowired
+  private MovieRestoreService movieRestoreService;
+  @Autowired
+  private MovieRepository movieRepository;
+  @Autowired
+  private MovieFileRepository movieFileRepository;
+  @Autowired
+  private RestoreRequestRepository restoreRequestRepository;
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+  @MockBean
+  private PlexFetchDataService plexFetchDataService;
+  @MockBean
+  private ArchiveTransport archiveTransport;
+  @MockBean
+  private TransferEngine transferEngine;
+  @MockBean
+  private ArchiveMetrics archiveMetrics;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    jdbcTemplate.execute("TRUNCATE pa.restore_request, pa.movie_file, pa.movies CASCADE");
+    when(transferEngine.callWithRetries(anyString(), any())).thenAnswer(invocation ->
+        invocation.<TransferTask<?>>getArgument(1).run());
+  }
+
+  @Test
+  void requestedMovieIsRestoredRequestedFileFirst() throws Exception {
+    archive(GUID, ArchiveState.DONE, ArchiveState.SWAPPED, ArchiveState.VERIFIED);
+
+    assertThat(movieRestoreService.requestRestore(GUID)).isEqualTo(2);
+    awaitRestoredMovie(GUID);
+
+    InOrder order = inOrder(archiveTransport);
+    order.verify(archiveTransport).restore("/archive/1/0.mkv", "/movies/1/0.mkv", null);
+    order.verify(archiveTransport).restore("/archive/1/1.mkv", "/movies/1/1.mkv", null);
+    assertThat(statuses()).containsExactly("DONE", "DONE");
+    assertThat(movieFileRepository.findByMovieModelGuidOrderByOriginalFile(GUID))
+        .extracting(MovieFileModel::getState)
+        .containsExactly(ArchiveState.RESTORED, ArchiveState.RESTORED, ArchiveState.VERIFIED);
+  }
+
+  @Test
+  void fileIsQueuedOnceUntilItsRestoreFailed() {
+    Integer id = archive(GUID, ArchiveState.DONE).get(0).getMovieFileModelId();
+    Instant now = Instant.now();
+
+    assertThat(restoreRequestRepository.queue(GUID, id, 100L, "USER", now)).isEqualTo(1);
+    assertThat(restoreRequestRepository.queue(GUID, id, 100L, "USER", now)).isZero();
+    Long requestId = restoreRequestRepository.findAll().get(0).getRestoreRequestId();
+    restoreRequestRepository.finish(requestId, "FAILED", now, "disk full");
+    assertThat(restoreRequestRepository.queue(GUID, id, 100L, "PLAYED", now)).isEqualTo(1);
+
+    assertThat(statuses()).containsExactly("QUEUED");
+    assertThat(jdbcTemplate.queryForObject("SELECT message FROM pa.restore_request",
+        String.class)).isNull();
+  }
+
+  @Test
+  void requestIsClaimedOnceAndQueuedAgainWhenItsRestoreStalled() {
+    Integer id = archive(GUID, ArchiveState.DONE).get(0).getMovieFileModelId();
+    restoreRequestRepository.queue(GUID, id, 100L, "USER", Instant.now());
+    Long requestId = restoreRequestRepository.findAll().get(0).getRestoreRequestId();
+    Instant startedAt = Instant.now().minus(Duration.ofHours(1));
+
+    assertThat(restoreRequestRepository.claim(requestId, startedAt)).isEqualTo(1);
+    assertThat(restoreRequestRepository.claim(requestId, startedAt)).isZero();
+    assertThat(restoreRequestRepository.requeueStale(startedAt)).isZero();
+    assertThat(restoreRequestRepository.requeueStale(Instant.now())).isEqualTo(1);
+
+    assertThat(statuses()).containsExactly("QUEUED");
+    assertThat(restoreRequestRepository.claim(requestId, Instant.now())).isEqualTo(1);
+  }
+
+  private List<MovieFileModel> archive(String guid, ArchiveState... states) {
+    var movie = new MovieModel();
+    movie.setGuid(guid);
+    movieRepository.upsertAll(List.of(movie));
+    List<MovieFileModel> files = new ArrayList<>();
+    for (int i = 0; i < states.length; i++) {
+      var file = new MovieFileModel();
+      file.setMovieModel(movie);
+      file.setOriginalFile("/movies/1/" + i + ".mkv");
+      file.setBackupFile("/archive/1/" + i + ".mkv");
+      // Later files are smaller, so size alone would restore them first.
+      file.setSize(100L - i);
+      file.setState(states[i]);
+      files.add(file);
+    }
+    movieFileRepository.persistAll(files);
+    return files;
+  }
+
+  private List<String> statuses() {
+    return jdbcTemplate.queryForList(
+        "SELECT status FROM pa.restore_request ORDER BY restore_request_id", String.class);
+  }
+
+  private void awaitRestoredMovie(String guid) throws InterruptedException {
+    long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+    while (movieRepository.findById(guid).map(MovieModel::getRestoredAt).isEmpty()) {
+      assertThat(System.nanoTime()).as("restored in time").isLessThan(deadline);
+      Thread.sleep(50);
+    }
+  }
+}
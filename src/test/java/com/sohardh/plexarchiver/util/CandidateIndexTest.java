@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sohardh.plexarchiver.dto.Movie;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class CandidateIndexTest {
+
+  @Test
+  void diffSplitsCandidatesIntoNewAndArchived() {
+    CandidateIndex index = new CandidateIndex(List.of(movie("a", 1), movie("b", 2),
+        movie("c", 3), movie("d", 4)));
+
+    CandidateIndex.Diff diff = index.diff(List.of("d", "b", "not-a-candidate"));
+
+    assertThat(diff.getNewMovies()).extracting(Movie::getGuid).containsExactly("a", "c");
+    assertThat(diff.getAlreadyArchived()).extracting(Movie::getGuid).containsExactly("b", "d");
+  }
+
+  @Test
+  void everyCandidateIsNewWhenNothingIsArchived() {
+    CandidateIndex index = new CandidateIndex(List.of(movie("a", 1), movie("b", 2)));
+
+    CandidateIndex.Diff diff = index.diff(Set.of());
+
+    assertThat(diff.getNewMovies()).extracting(Movie::getGuid).containsExactly("a", "b");
+    assertThat(diff.getAlreadyArchived()).isEmpty();
+  }
+
+  @Test
+  void firstMovieWinsForADuplicateGuid() {
+    CandidateIndex index = new CandidateIndex(List.of(movie("a", 1), movie("b", 2),
+        movie("a", 3)));
+
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.guids()).containsExactly("a", "b");
+    assertThat(index.get("a")).hasValueSatisfying(movie ->
+        assertThat(movie.getLastViewedAt()).isEqualTo(1));
+    assertThat(index.get("missing")).isEmpty();
+  }
+
+  private static Movie movie(String guid, long lastViewedAt) {
+    return Movie.builder().guid(guid).title(guid).lastViewedAt(lastViewedAt).build();
+  }
+}
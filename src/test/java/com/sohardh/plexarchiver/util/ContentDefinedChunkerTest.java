@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class ContentDefinedChunkerTest {
+
+  private static final int AVERAGE_SIZE = 4096;
+
+  @Test
+  void chunksConcatenateToTheInput() throws IOException {
+    byte[] data = randomBytes(1 << 20, 1);
+
+    ByteArrayOutputStream joined = new ByteArrayOutputStream();
+    for (byte[] chunk : chunks(data)) {
+      joined.write(chunk);
+    }
+    assertThat(joined.toByteArray()).isEqualTo(data);
+  }
+
+  @Test
+  void chunksStayWithinTheSizeBounds() throws IOException {
+    List<byte[]> chunks = chunks(randomBytes(1 << 20, 2));
+
+    assertThat(chunks.subList(0, chunks.size() - 1)).allSatisfy(chunk -> assertThat(chunk.length)
+        .isGreaterThan(AVERAGE_SIZE / 4).isLessThanOrEqualTo(AVERAGE_SIZE * 4));
+    assertThat(chunks.get(chunks.size() - 1).length).isLessThanOrEqualTo(AVERAGE_SIZE * 4);
+  }
+
+  @Test
+  void boundariesFollowTheContentAfterAnInsertion() throws IOException {
+    byte[] data = randomBytes(1 << 20, 3);
+    byte[] shifted = new byte[data.length + 100];
+    System.arraycopy(randomBytes(100, 4), 0, shifted, 0, 100);
+    System.arraycopy(data, 0, shifted, 100, data.length);
+
+    List<byte[]> original = chunks(data);
+    Set<ByteBuffer> shiftedChunks = new HashSet<>();
+    chunks(shifted).forEach(chunk -> shiftedChunks.add(ByteBuffer.wrap(chunk)));
+
+    long shared = original.stream().map(ByteBuffer::wrap).filter(shiftedChunks::contains)
+        .count();
+    assertThat(shared).isGreaterThanOrEqualTo(original.size() - 2);
+  }
+
+  @Test
+  void emptyStreamHasNoChunks() throws IOException {
+    assertThat(new ContentDefinedChunker(new ByteArrayInputStream(new byte[0]), AVERAGE_SIZE)
+        .next()).isNull();
+  }
+
+  private static List<byte[]> chunks(byte[] data) throws IOException {
+    ContentDefinedChunker chunker = new ContentDefinedChunker(new ByteArrayInputStream(data),
+        AVERAGE_SIZE);
+    List<byte[]> chunks = new ArrayList<>();
+    for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  private static byte[] randomBytes(int length, long seed) {
+    byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sohardh.plexarchiver.dto.Movie;
+import com.sohardh.plexarchiver.dto.MoviePart;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+class PlexDataParserUtilTest {
+
+  private static final Logger log = LoggerFactory.getLogger(PlexDataParserUtilTest.class);
+  private static final String RESPONSE = """
+      <?xml version="1.0" encoding="UTF-8"?>
+      <MediaContainer size="4">
+        <Video ratingKey="1" guid="plex://movie/1" title="Two &amp; Parts" thumb="/t/1"
+            viewCount="2" addedAt="1500000000" lastViewedAt="1550000000"
+            originallyAvailableAt="2001-12-19">
+          <Media id="10" duration="7200000">
+            <Part id="100" size="1000" duration="3600000" file="/movies/a/a.cd1.mkv"/>
+            <Part id="101" size="2000" duration="3600000" file="/movies/a/a.cd2.mkv"/>
+          </Media>
+          <Media id="11">
+            <Part id="110" size="3000" file="/movies/a/a.mp4"/>
+          </Media>
+          <Genre tag="Drama"/>
+        </Video>
+        <Video ratingKey="2" guid="plex://movie/2" title="Never Watched"
+            originallyAvailableAt="not a date" viewCount="x">
+          <Media id="20">
+            <Part id="200" file="/movies/b/b.mkv"/>
+            <Part id="201"/>
+          </Media>
+        </Video>
+        <Directory title="Not A Movie"/>
+        <Video ratingKey="3" guid="plex://movie/3" title="No Parts">
+          <Genre tag="Horror"/>
+        </Video>
+      </MediaContainer>
+      """;
+
+  @Test
+  void staxAndDomParseTheSameMovies() throws Exception {
+    List<Movie> dom = PlexDataParserUtil.parsePlexResponse(RESPONSE, log, ParserMode.DOM);
+    List<Movie> stax = PlexDataParserUtil.parsePlexResponse(RESPONSE, log, ParserMode.STAX);
+
+    assertThat(stax).isEqualTo(dom);
+    assertThat(stax).extracting(Movie::getGuid)
+        .containsExactly("plex://movie/1", "plex://movie/2", "plex://movie/3");
+  }
+
+  @Test
+  void parsesAttributesAndParts() throws Exception {
+    List<Movie> movies = PlexDataParserUtil.parsePlexResponse(RESPONSE, log, ParserMode.STAX);
+
+    Movie first = movies.get(0);
+    assertThat(first.getTitle()).isEqualTo("Two & Parts");
+    assertThat(first.getViewCount()).isEqualTo(2);
+    assertThat(first.getAddedAt()).isEqualTo(1500000000L);
+    assertThat(first.getLastViewedAt()).isEqualTo(1550000000L);
+    assertThat(first.getOriginallyAvailableAt()).isEqualTo(LocalDate.of(2001, 12, 19));
+    assertThat(first.getParts()).containsExactly(
+        MoviePart.builder().id(100).size(1000).duration(3600000).file("/movies/a/a.cd1.mkv")
+            .build(),
+        MoviePart.builder().id(101).size(2000).duration(3600000).file("/movies/a/a.cd2.mkv")
+            .build(),
+        MoviePart.builder().id(110).size(3000).file("/movies/a/a.mp4").build());
+
+    Movie second = movies.get(1);
+    assertThat(second.getViewCount()).isZero();
+    assertThat(second.getLastViewedAt()).isZero();
+    assertThat(second.getOriginallyAvailableAt()).isNull();
+    assertThat(second.getFiles()).containsExactly("/movies/b/b.mkv");
+    assertThat(movies.get(2).getParts()).isEmpty();
+  }
+
+  @Test
+  void inputStreamAndReactiveParsersMatchTheStringParser() throws Exception {
+    List<Movie> expected = PlexDataParserUtil.parsePlexResponse(RESPONSE, log, ParserMode.STAX);
+    byte[] bytes = RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+    List<Movie> streamed = new ArrayList<>();
+    PlexDataParserUtil.parsePlexResponse(new ByteArrayInputStream(bytes), log, streamed::add);
+    assertThat(streamed).isEqualTo(expected);
+
+    // Small chunks split tags and attributes between buffers.
+    int chunkSize = 7;
+    Flux<DataBuffer> body = Flux.range(0, (bytes.length + chunkSize - 1) / chunkSize)
+        .map(chunk -> DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(bytes,
+            chunk * chunkSize, Math.min(bytes.length, (chunk + 1) * chunkSize))));
+    assertThat(PlexDataParserUtil.parsePlexResponse(body, log).collectList().block())
+        .isEqualTo(expected);
+  }
+}
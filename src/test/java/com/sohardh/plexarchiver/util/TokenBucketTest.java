@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sohardh.plexarchiver.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+  private static final long RATE = 1_000_000;
+
+  @Test
+  void unlimitedBucketNeverWaits() throws InterruptedException {
+    TokenBucket bucket = new TokenBucket();
+
+    assertThat(bucket.acquire(Long.MAX_VALUE)).isZero();
+    bucket.setRate(RATE);
+    bucket.setRate(0);
+    assertThat(bucket.acquire(RATE * 10)).isZero();
+  }
+
+  @Test
+  void waitsForTheDebtAtTheRate() throws InterruptedException {
+    TokenBucket bucket = new TokenBucket();
+    bucket.setRate(RATE);
+
+    long first = bucket.acquire(RATE / 10);
+    // The first debt is paid by the time the call returns, the second one is owed in full.
+    long second = bucket.acquire(RATE / 10);
+
+    assertThat(first).isBetween(millis(50), millis(100));
+    assertThat(second).isBetween(millis(50), millis(100));
+  }
+
+  @Test
+  void holdsAtMostOneSecondOfTokens() throws InterruptedException {
+    TokenBucket bucket = new TokenBucket();
+    bucket.setRate(RATE);
+    TimeUnit.MILLISECONDS.sleep(1500);
+
+    long full = bucket.acquire(RATE);
+    // Without the cap the idle time would have saved up enough tokens to not wait at all.
+    long overdrawn = bucket.acquire(RATE / 2);
+
+    assertThat(full).isZero();
+    assertThat(overdrawn).isBetween(millis(300), millis(500));
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}